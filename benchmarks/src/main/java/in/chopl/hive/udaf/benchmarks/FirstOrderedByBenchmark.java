@@ -0,0 +1,235 @@
+package in.chopl.hive.udaf.benchmarks;
+
+import in.chopl.hive.udaf.FirstOrderedBy;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives GenericUDAFFirstOrderedByEvaluator through every aggregation mode.
+ *
+ * partial1 and complete iterate over ROWS rows, and report throughput in rows.
+ * partial2 and final merge partials made from the same rows by MAPPERS simulated mappers,
+ * and report throughput in invocations.
+ *
+ * Run with the GC profiler to see allocation rates:
+ * <pre>
+ *   java -jar benchmarks/target/benchmarks.jar FirstOrderedByBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FirstOrderedByBenchmark {
+    static final int ROWS = 1 << 20;
+    static final int MAPPERS = 8;
+
+    @Param({"int", "bigint", "double", "string", "timestamp"})
+    public String cmpType;
+
+    @Param({"1", "3"})
+    public int cmpColumns;
+
+    @Param({"1", "1000", "100000"})
+    public int groups;
+
+    @Param({"ASCENDING", "DESCENDING", "RANDOM"})
+    public SyntheticRows.Ordering ordering;
+
+    @Param({"ASC"})
+    public String order;
+
+    @Param({"false", "true"})
+    public boolean normalizedKeys;
+
+    private SyntheticRows rows;
+
+    private GenericUDAFEvaluator partial1;
+    private GenericUDAFEvaluator partial2;
+    private GenericUDAFEvaluator finalEvaluator;
+    private GenericUDAFEvaluator complete;
+
+    private AggregationBuffer[] partial1Buffers;
+    private AggregationBuffer[] partial2Buffers;
+    private AggregationBuffer[] finalBuffers;
+    private AggregationBuffer[] completeBuffers;
+
+    // copied partials, as they would come from the shuffle
+    private List<Object> partials;
+    private int[] partialGroups;
+
+    @Setup
+    public void setUp() throws Exception {
+        rows = new SyntheticRows(cmpType, cmpColumns, ROWS, groups, ordering, order);
+
+        ObjectInspector partialOI = newEvaluator().init(GenericUDAFEvaluator.Mode.PARTIAL1, rows.inputOIs);
+        ObjectInspector[] mergeOIs = {ObjectInspectorUtils.getStandardObjectInspector(partialOI)};
+
+        partial1 = newEvaluator();
+        partial1.init(GenericUDAFEvaluator.Mode.PARTIAL1, rows.inputOIs);
+        partial2 = newEvaluator();
+        partial2.init(GenericUDAFEvaluator.Mode.PARTIAL2, mergeOIs);
+        finalEvaluator = newEvaluator();
+        finalEvaluator.init(GenericUDAFEvaluator.Mode.FINAL, mergeOIs);
+        complete = newEvaluator();
+        complete.init(GenericUDAFEvaluator.Mode.COMPLETE, rows.inputOIs);
+
+        partial1Buffers = newBuffers(partial1);
+        partial2Buffers = newBuffers(partial2);
+        finalBuffers = newBuffers(finalEvaluator);
+        completeBuffers = newBuffers(complete);
+
+        makePartials(partialOI);
+    }
+
+    private AggregationBuffer[] newBuffers(GenericUDAFEvaluator evaluator) throws HiveException {
+        AggregationBuffer[] buffers = new AggregationBuffer[groups];
+        for (int g = 0; g < groups; g++) {
+            buffers[g] = evaluator.getNewAggregationBuffer();
+        }
+        return buffers;
+    }
+
+    private GenericUDAFEvaluator newEvaluator() throws Exception {
+        int len = rows.inputOIs.length;
+        TypeInfo[] types = new TypeInfo[len];
+        for (int i = 0; i < len; i++) {
+            types[i] = TypeInfoUtils.getTypeInfoFromObjectInspector(rows.inputOIs[i]);
+        }
+
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator evaluator =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator) new FirstOrderedBy().getEvaluator(types);
+        evaluator.setNormalizedKeys(normalizedKeys);
+        return evaluator;
+    }
+
+    /**
+     * Split rows into MAPPERS mappers, and keep a copy of each partial.
+     */
+    private void makePartials(ObjectInspector partialOI) throws Exception {
+        GenericUDAFEvaluator evaluator = newEvaluator();
+        evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, rows.inputOIs);
+        AggregationBuffer[] buffers = newBuffers(evaluator);
+
+        partials = new ArrayList<Object>();
+        List<Integer> groupList = new ArrayList<Integer>();
+        int rowsPerMapper = (ROWS + MAPPERS - 1) / MAPPERS;
+
+        for (int start = 0; start < ROWS; start += rowsPerMapper) {
+            resetBuffers(evaluator, buffers);
+            int end = Math.min(start + rowsPerMapper, ROWS);
+            for (int r = start; r < end; r++) {
+                evaluator.iterate(buffers[rows.groups[r]], rows.rows[r]);
+            }
+            for (int g = 0; g < groups; g++) {
+                Object partial = evaluator.terminatePartial(buffers[g]);
+                if (partial != null) {
+                    partials.add(ObjectInspectorUtils.copyToStandardObject(partial, partialOI));
+                    groupList.add(g);
+                }
+            }
+        }
+
+        partialGroups = new int[groupList.size()];
+        for (int i = 0; i < partialGroups.length; i++) {
+            partialGroups[i] = groupList.get(i);
+        }
+    }
+
+    private void resetBuffers(GenericUDAFEvaluator evaluator, AggregationBuffer[] buffers) throws HiveException {
+        for (AggregationBuffer buffer : buffers) {
+            evaluator.reset(buffer);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void partial1(Blackhole bh) throws HiveException {
+        AggregationBuffer[] buffers = partial1Buffers;
+        resetBuffers(partial1, buffers);
+        Object[][] input = rows.rows;
+        int[] inputGroups = rows.groups;
+        for (int r = 0; r < ROWS; r++) {
+            partial1.iterate(buffers[inputGroups[r]], input[r]);
+        }
+        for (AggregationBuffer buffer : buffers) {
+            bh.consume(partial1.terminatePartial(buffer));
+        }
+    }
+
+    @Benchmark
+    public void partial2(Blackhole bh) throws HiveException {
+        merge(partial2, partial2Buffers);
+        for (AggregationBuffer buffer : partial2Buffers) {
+            bh.consume(partial2.terminatePartial(buffer));
+        }
+    }
+
+    @Benchmark
+    public void final_(Blackhole bh) throws HiveException {
+        merge(finalEvaluator, finalBuffers);
+        for (AggregationBuffer buffer : finalBuffers) {
+            bh.consume(finalEvaluator.terminate(buffer));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void complete(Blackhole bh) throws HiveException {
+        AggregationBuffer[] buffers = completeBuffers;
+        resetBuffers(complete, buffers);
+        Object[][] input = rows.rows;
+        int[] inputGroups = rows.groups;
+        for (int r = 0; r < ROWS; r++) {
+            complete.iterate(buffers[inputGroups[r]], input[r]);
+        }
+        for (AggregationBuffer buffer : buffers) {
+            bh.consume(complete.terminate(buffer));
+        }
+    }
+
+    private void merge(GenericUDAFEvaluator evaluator, AggregationBuffer[] buffers) throws HiveException {
+        resetBuffers(evaluator, buffers);
+        int len = partials.size();
+        for (int i = 0; i < len; i++) {
+            evaluator.merge(buffers[partialGroups[i]], partials.get(i));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FirstOrderedByBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
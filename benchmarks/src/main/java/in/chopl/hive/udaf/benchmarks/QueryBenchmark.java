@@ -0,0 +1,264 @@
+package in.chopl.hive.udaf.benchmarks;
+
+import in.chopl.hive.udaf.FirstOrderedBy;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.Driver;
+import org.apache.hadoop.hive.ql.MapRedStats;
+import org.apache.hadoop.hive.ql.exec.GroupByOperator;
+import org.apache.hadoop.hive.ql.processors.CommandProcessorResponse;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.apache.hadoop.hive.shims.ShimLoader;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs GROUP BY queries with first() on an embedded Hive, to see the UDAF inside GroupByOperator:
+ * map-side hash aggregation and its flushes, serialized partials, and the merge in reducers.
+ *
+ * The metastore is an embedded Derby, and jobs run on LocalJobRunner in this JVM,
+ * so that their counters and the logs of GroupByOperator can be collected. For each query and run,
+ * wall time, map output records and bytes (what a cluster would shuffle), and the number of
+ * flushes of map-side hash tables are reported.
+ *
+ * DataNucleus does not work from the shaded benchmarks.jar, so run it from Maven:
+ * <pre>
+ *   mvn -f benchmarks/pom.xml compile exec:java \
+ *       -Dexec.mainClass=in.chopl.hive.udaf.benchmarks.QueryBenchmark \
+ *       -Dexec.args="--rows=10000000 --keys=100000 --skew=1.2"
+ * </pre>
+ *
+ * Options:
+ * <pre>
+ *   --rows=N          rows of the synthetic table (default 1000000)
+ *   --keys=N          distinct GROUP BY keys (default 10000)
+ *   --skew=S          Zipf exponent of keys, 0 for uniform (default 0)
+ *   --runs=N          runs of each query (default 3)
+ *   --map-aggr=B      hive.map.aggr (default true)
+ *   --hash-memory=F   hive.map.aggr.hash.percentmemory. smaller values flush more (default 0.5)
+ *   --split-size=N    max split size in bytes, i.e. the number of mappers (default 33554432)
+ *   --dir=PATH        working directory for the metastore, the warehouse and outputs (default a temp dir)
+ * </pre>
+ */
+public class QueryBenchmark {
+    static final String TABLE = "synthetic";
+
+    // name and the first() call of each query
+    static final String[][] QUERIES = {
+            {"int_asc", "first(v, c_int, 'ASC')"},
+            {"int_asc_str_desc", "first(v, c_int, 'ASC', c_str, 'DESC')"},
+            {"str_desc", "first(v, c_str, 'DESC')"},
+            {"ts_asc", "first(v, c_ts, 'ASC')"},
+    };
+
+    private final File dir;
+    private final HiveConf conf;
+    private final FlushCounter flushCounter = new FlushCounter();
+    private Driver driver;
+
+    QueryBenchmark(File dir, boolean mapAggr, float hashMemory, long splitSize) {
+        this.dir = dir;
+        System.setProperty("derby.stream.error.file", new File(dir, "derby.log").getPath());
+
+        conf = new HiveConf(SessionState.class);
+        conf.set("javax.jdo.option.ConnectionURL",
+                "jdbc:derby:;databaseName=" + new File(dir, "metastore_db").getPath() + ";create=true");
+        conf.setVar(HiveConf.ConfVars.METASTOREURIS, "");
+        conf.setVar(HiveConf.ConfVars.METASTOREWAREHOUSE, new File(dir, "warehouse").toURI().toString());
+        conf.setVar(HiveConf.ConfVars.SCRATCHDIR, new File(dir, "scratch").getPath());
+        conf.setVar(HiveConf.ConfVars.LOCALSCRATCHDIR, new File(dir, "local-scratch").getPath());
+        conf.setVar(HiveConf.ConfVars.HIVEHISTORYFILELOC, new File(dir, "history").getPath());
+        conf.set("fs.default.name", "file:///");
+
+        // jobs go to LocalJobRunner. Hive runs jobs of local mode in a child JVM, whose counters and logs
+        // are lost, so the shims must not see this as local mode.
+        conf.set("mapred.job.tracker", "local");
+        conf.set("mapreduce.framework.name", "classic");
+        conf.setBoolVar(HiveConf.ConfVars.LOCALMODEAUTO, false);
+        conf.setBoolVar(HiveConf.ConfVars.SUBMITVIACHILD, false);
+        if (ShimLoader.getHadoopShims().isLocalMode(conf)) {
+            throw new IllegalStateException("Jobs would run in a child JVM. Check the Hadoop version on the classpath");
+        }
+
+        conf.setBoolVar(HiveConf.ConfVars.HIVEMAPSIDEAGGREGATE, mapAggr);
+        conf.setFloatVar(HiveConf.ConfVars.HIVEMAPAGGRHASHMEMORY, hashMemory);
+        conf.setVar(HiveConf.ConfVars.HIVEINPUTFORMAT, "org.apache.hadoop.hive.ql.io.HiveInputFormat");
+        conf.setLong("mapred.max.split.size", splitSize);
+        conf.setInt("mapred.reduce.tasks", 1);
+    }
+
+    void setUp(SyntheticTable table) throws Exception {
+        SessionState.start(new SessionState(conf));
+        driver = new Driver(conf);
+
+        Logger logger = Logger.getLogger(GroupByOperator.class);
+        logger.setLevel(Level.INFO);
+        logger.addAppender(flushCounter);
+
+        File data = new File(dir, TABLE + ".tsv");
+        long start = System.currentTimeMillis();
+        table.write(data);
+        System.out.printf("generated %s in %d ms%n", table, System.currentTimeMillis() - start);
+
+        run("CREATE TEMPORARY FUNCTION first AS '" + FirstOrderedBy.class.getName() + "'");
+        run("DROP TABLE IF EXISTS " + TABLE);
+        run("CREATE TABLE " + TABLE + " (" + SyntheticTable.SCHEMA + ")" +
+            " ROW FORMAT DELIMITED FIELDS TERMINATED BY '\\t' STORED AS TEXTFILE");
+        run("LOAD DATA LOCAL INPATH '" + data.getPath() + "' OVERWRITE INTO TABLE " + TABLE);
+    }
+
+    void runQueries(int runs) throws Exception {
+        System.out.printf("%-20s %4s %10s %14s %16s %8s%n",
+                "query", "run", "wall_ms", "map_out_rows", "map_out_bytes", "flushes");
+
+        for (String[] query : QUERIES) {
+            String sql = "INSERT OVERWRITE DIRECTORY '" + new File(dir, "out/" + query[0]).getPath() + "'" +
+                         " SELECT k, " + query[1] + " FROM " + TABLE + " GROUP BY k";
+            for (int i = 0; i < runs; i++) {
+                flushCounter.reset();
+                long start = System.currentTimeMillis();
+                run(sql);
+                long wall = System.currentTimeMillis() - start;
+
+                List<MapRedStats> stats = SessionState.get().getLastMapRedStatsList();
+                System.out.printf("%-20s %4d %10d %14d %16d %8d%n", query[0], i, wall,
+                        sumCounter(stats, "MAP_OUTPUT_RECORDS"), sumCounter(stats, "MAP_OUTPUT_BYTES"),
+                        flushCounter.flushes);
+            }
+        }
+    }
+
+    private void run(String sql) throws Exception {
+        CommandProcessorResponse response = driver.run(sql);
+        if (response.getResponseCode() != 0) {
+            throw new IllegalStateException("Failed: " + sql + ": " + response.getErrorMessage());
+        }
+    }
+
+    /**
+     * @return
+     *          the sum of a counter over the jobs of the last query, or -1 if it is not available
+     */
+    private static long sumCounter(List<MapRedStats> stats, String name) {
+        if (stats == null || stats.isEmpty()) {
+            return -1;
+        }
+
+        long sum = 0;
+        for (MapRedStats stat : stats) {
+            Counters counters = stat.getCounters();
+            if (counters == null) {
+                continue;
+            }
+            for (Counters.Group group : counters) {
+                for (Counters.Counter counter : group) {
+                    if (name.equals(counter.getName())) {
+                        sum += counter.getValue();
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+
+    void close() throws IOException {
+        Logger.getLogger(GroupByOperator.class).removeAppender(flushCounter);
+        if (driver != null) {
+            driver.close();
+        }
+        SessionState.get().close();
+    }
+
+    /**
+     * Counts flushes of map-side hash tables from the log of GroupByOperator, which has no counter for them.
+     */
+    static class FlushCounter extends AppenderSkeleton {
+        volatile int flushes;
+
+        void reset() {
+            flushes = 0;
+        }
+
+        @Override
+        protected void append(LoggingEvent event) {
+            Object message = event.getMessage();
+            if (message != null && message.toString().startsWith("Hash Table flushed")) {
+                flushes++;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = 1000000;
+        int keys = 10000;
+        double skew = 0;
+        int runs = 3;
+        boolean mapAggr = true;
+        float hashMemory = 0.5f;
+        long splitSize = 32L << 20;
+        File dir = null;
+
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Options must be --name=value: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+
+            if ("rows".equals(name)) {
+                rows = Integer.parseInt(value);
+            } else if ("keys".equals(name)) {
+                keys = Integer.parseInt(value);
+            } else if ("skew".equals(name)) {
+                skew = Double.parseDouble(value);
+            } else if ("runs".equals(name)) {
+                runs = Integer.parseInt(value);
+            } else if ("map-aggr".equals(name)) {
+                mapAggr = Boolean.parseBoolean(value);
+            } else if ("hash-memory".equals(name)) {
+                hashMemory = Float.parseFloat(value);
+            } else if ("split-size".equals(name)) {
+                splitSize = Long.parseLong(value);
+            } else if ("dir".equals(name)) {
+                dir = new File(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        if (dir == null) {
+            dir = File.createTempFile("query-benchmark", "");
+            if (!dir.delete()) {
+                throw new IOException("Cannot make a working directory: " + dir);
+            }
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot make a working directory: " + dir);
+        }
+        System.out.println("working directory: " + dir.getAbsolutePath());
+
+        QueryBenchmark benchmark = new QueryBenchmark(dir.getAbsoluteFile(), mapAggr, hashMemory, splitSize);
+        try {
+            benchmark.setUp(new SyntheticTable(rows, keys, skew));
+            benchmark.runQueries(runs);
+        } finally {
+            benchmark.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package in.chopl.hive.udaf.benchmarks;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+import java.sql.Timestamp;
+import java.util.Random;
+
+/**
+ * Synthetic UDAF parameters: val_col followed by cmp_col/cmp_col_order pairs.
+ */
+public class SyntheticRows {
+
+    public enum Ordering {
+        // cmp_cols increase with the row number. with ASC, the first row of each group wins.
+        ASCENDING,
+        // cmp_cols decrease with the row number. with ASC, every row replaces the buffered one.
+        DESCENDING,
+        RANDOM
+    }
+
+    final ObjectInspector[] inputOIs;
+    final Object[][] rows;
+    final int[] groups;
+
+    /**
+     * @param cmpType
+     *          Hive type name of cmp_cols. int, bigint, double, string or timestamp
+     * @param cmpColumns
+     *          number of cmp_cols
+     * @param rowCount
+     *          number of rows
+     * @param groupCount
+     *          number of groups. rows are assigned to groups in round robin
+     * @param ordering
+     *          ordering of cmp_cols over rows
+     * @param order
+     *          cmp_col_order for all cmp_cols
+     */
+    public SyntheticRows(String cmpType, int cmpColumns, int rowCount, int groupCount, Ordering ordering, String order) {
+        PrimitiveObjectInspector.PrimitiveCategory category = categoryOf(cmpType);
+        int len = cmpColumns * 2 + 1;
+
+        inputOIs = new ObjectInspector[len];
+        inputOIs[0] = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+        for (int i = 1; i < len; i += 2) {
+            inputOIs[i] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(category);
+            inputOIs[i + 1] = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                    PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text(order));
+        }
+
+        int[] ranks = ranks(rowCount, ordering);
+        Text orderText = new Text(order);
+
+        rows = new Object[rowCount][];
+        groups = new int[rowCount];
+        for (int r = 0; r < rowCount; r++) {
+            Object[] row = new Object[len];
+            row[0] = "value" + r;
+            for (int i = 1; i < len; i += 2) {
+                // the first cmp_col has few distinct values, so later ones are compared too
+                int rank = i == 1 && cmpColumns > 1 ? ranks[r] / 16 : ranks[r];
+                row[i] = valueOf(category, rank);
+                row[i + 1] = orderText;
+            }
+            rows[r] = row;
+            groups[r] = r % groupCount;
+        }
+    }
+
+    private static int[] ranks(int rowCount, Ordering ordering) {
+        int[] ranks = new int[rowCount];
+        for (int r = 0; r < rowCount; r++) {
+            ranks[r] = ordering == Ordering.DESCENDING ? rowCount - r : r;
+        }
+
+        if (ordering == Ordering.RANDOM) {
+            // fixed seed, so that runs are comparable
+            Random random = new Random(42);
+            for (int r = rowCount - 1; r > 0; r--) {
+                int j = random.nextInt(r + 1);
+                int tmp = ranks[r];
+                ranks[r] = ranks[j];
+                ranks[j] = tmp;
+            }
+        }
+        return ranks;
+    }
+
+    private static PrimitiveObjectInspector.PrimitiveCategory categoryOf(String type) {
+        if ("int".equals(type)) {
+            return PrimitiveObjectInspector.PrimitiveCategory.INT;
+        } else if ("bigint".equals(type)) {
+            return PrimitiveObjectInspector.PrimitiveCategory.LONG;
+        } else if ("double".equals(type)) {
+            return PrimitiveObjectInspector.PrimitiveCategory.DOUBLE;
+        } else if ("string".equals(type)) {
+            return PrimitiveObjectInspector.PrimitiveCategory.STRING;
+        } else if ("timestamp".equals(type)) {
+            return PrimitiveObjectInspector.PrimitiveCategory.TIMESTAMP;
+        }
+        throw new IllegalArgumentException("Unsupported cmp_col type: " + type);
+    }
+
+    private static Object valueOf(PrimitiveObjectInspector.PrimitiveCategory category, int rank) {
+        switch (category) {
+            case INT:
+                return rank;
+            case LONG:
+                return (long) rank << 20;
+            case DOUBLE:
+                return rank / 7.0;
+            case STRING:
+                return String.format("key%010d", rank);
+            case TIMESTAMP:
+                return new Timestamp(1370000000000L + rank * 1000L);
+            default:
+                throw new IllegalArgumentException("Unsupported category: " + category);
+        }
+    }
+}
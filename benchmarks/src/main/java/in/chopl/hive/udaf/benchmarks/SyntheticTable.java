@@ -0,0 +1,89 @@
+package in.chopl.hive.udaf.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A synthetic table for QueryBenchmark, written as a tab separated text file.
+ *
+ * Columns are (k int, v string, c_int int, c_str string, c_ts timestamp).
+ * Keys are drawn from a Zipf distribution, so that a few keys are hot when skew is large.
+ */
+public class SyntheticTable {
+    static final String SCHEMA = "k INT, v STRING, c_int INT, c_str STRING, c_ts TIMESTAMP";
+
+    final int rowCount;
+    final int keyCount;
+    final double skew;
+
+    /**
+     * @param rowCount
+     *          number of rows
+     * @param keyCount
+     *          number of distinct keys, i.e. cardinality of GROUP BY k
+     * @param skew
+     *          exponent of the Zipf distribution of keys. 0 for uniform keys
+     */
+    public SyntheticTable(int rowCount, int keyCount, double skew) {
+        this.rowCount = rowCount;
+        this.keyCount = keyCount;
+        this.skew = skew;
+    }
+
+    void write(File file) throws IOException {
+        double[] cumulative = cumulativeWeights();
+        // fixed seed, so that runs are comparable
+        Random random = new Random(42);
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+        try {
+            for (int r = 0; r < rowCount; r++) {
+                int key = nextKey(random, cumulative);
+                int rank = random.nextInt(rowCount);
+                out.write(Integer.toString(key));
+                out.write('\t');
+                out.write("value" + r);
+                out.write('\t');
+                out.write(Integer.toString(rank));
+                out.write('\t');
+                out.write(String.format("key%010d", rank));
+                out.write('\t');
+                out.write(new Timestamp(1370000000000L + rank * 1000L).toString());
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private double[] cumulativeWeights() {
+        double[] cumulative = new double[keyCount];
+        double sum = 0;
+        for (int k = 0; k < keyCount; k++) {
+            sum += 1.0 / Math.pow(k + 1, skew);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < keyCount; k++) {
+            cumulative[k] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int nextKey(Random random, double[] cumulative) {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        int key = i >= 0 ? i : -i - 1;
+        return Math.min(key, cumulative.length - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "rows=" + rowCount + ", keys=" + keyCount + ", skew=" + skew;
+    }
+}
@@ -0,0 +1,605 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.io.TimestampWritable;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Compact binary encoding of cmp_cols in a partial aggregation.
+ *
+ * The types and orders of cmp_cols are the schema of the encoding. Partials of first(), first_n() and
+ * first_last() carry it in their type, as the always-null cmp_types field made by makeSchemaObjectInspector(),
+ * so each row only holds values:
+ * <pre>
+ *   (n+7)/8     bytes of null bits, 1 for null
+ *   for each non-null cmp_col:
+ *     [value]
+ * </pre>
+ *
+ * Bytes which are stored or passed without the type of a partial, such as the states of
+ * first_ordered_by_state(), start with the schema instead. See the inlineSchema parameter of the constructor.
+ * <pre>
+ *   vint        number of cmp_cols (n)
+ *   (n+7)/8     bytes of order bits, 1 for DESC
+ *   n bytes     type tags
+ *   [string]    type name for each cmp_col of TAG_OTHER
+ *   values      as above
+ * </pre>
+ */
+class CmpColumnsCodec {
+    static final byte TAG_BOOLEAN = 1;
+    static final byte TAG_BYTE = 2;
+    static final byte TAG_SHORT = 3;
+    static final byte TAG_INT = 4;
+    static final byte TAG_LONG = 5;
+    static final byte TAG_FLOAT = 6;
+    static final byte TAG_DOUBLE = 7;
+    static final byte TAG_STRING = 8;
+    static final byte TAG_TIMESTAMP = 9;
+    static final byte TAG_BINARY = 10;
+    // complex and other types, serialized by LazyBinarySerDe
+    static final byte TAG_OTHER = 11;
+
+    private final DataOutputBuffer out = new DataOutputBuffer();
+    private final DataInputBuffer in = new DataInputBuffer();
+
+    // true when encoded bytes start with the schema
+    private final boolean inlineSchema;
+
+    // the schema, built by setSchema(), the first encode(), or the first decode() with inline schemas
+    private String[] orders;
+    private byte[] tags;
+    private ColumnSerDe[] serDes;
+    // the encoded schema. a decoded inline schema is only compared with it.
+    private byte[] schemaBytes;
+
+    // decoded values and their ObjectInspectors
+    private byte[] nullBits;
+    private Object[] holders;
+    private Object[] values;
+    private ObjectInspector[] ois;
+
+    /**
+     * @param inlineSchema
+     *          true to write the schema before values, and read it in decode().
+     *          false for partials with cmp_types, whose schema is given by setSchema() before decode().
+     */
+    CmpColumnsCodec(boolean inlineSchema) {
+        this.inlineSchema = inlineSchema;
+    }
+
+    /**
+     * Make the ObjectInspector of cmp_types, a struct whose field types are the types of cmp_cols,
+     * and whose field names end with cmp_col_orders. The value of cmp_types is always null.
+     *
+     * @param ois
+     *          ObjectInspectors in the layout of UDAF parameters. cmp_cols are at odd indices.
+     * @param orders
+     *          cmp_col_orders
+     */
+    static StructObjectInspector makeSchemaObjectInspector(ObjectInspector[] ois, String[] orders) {
+        int len = orders.length;
+        List<String> fieldNames = new ArrayList<String>(len);
+        List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(len);
+
+        for (int i = 0; i < len; i++) {
+            fieldNames.add("c" + (i + 1) + "_" + orders[i].toLowerCase());
+            fieldOIs.add(ois[i * 2 + 1]);
+        }
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    /**
+     * Take the schema from the ObjectInspector of cmp_types made by makeSchemaObjectInspector().
+     */
+    void setSchema(StructObjectInspector schemaOI) throws HiveException {
+        List<? extends StructField> fields = schemaOI.getAllStructFieldRefs();
+        int len = fields.size();
+        String[] orders = new String[len];
+        byte[] tags = new byte[len];
+        String[] typeNames = new String[len];
+
+        for (int i = 0; i < len; i++) {
+            String name = fields.get(i).getFieldName();
+            String order = name.substring(name.lastIndexOf('_') + 1).toUpperCase();
+            if (!order.equals(FirstOrderedBy.ASC_ORDER) && !order.equals(FirstOrderedBy.DESC_ORDER)) {
+                throw new HiveException("Unexpected field of cmp_types: " + name);
+            }
+            ObjectInspector oi = fields.get(i).getFieldObjectInspector();
+            orders[i] = order;
+            tags[i] = tagOf(oi);
+            typeNames[i] = oi.getTypeName();
+        }
+        initSchema(orders, tags, typeNames);
+    }
+
+    /**
+     * @return
+     *          the encoded schema, which starts the bytes of a codec with inline schemas
+     */
+    byte[] getSchemaBytes() {
+        return schemaBytes;
+    }
+
+    /**
+     * Encode cmp_cols of objects.
+     *
+     * @param objects
+     *          objects in the layout of UDAF parameters. cmp_cols are at odd indices.
+     * @param ois
+     *          ObjectInspectors for objects
+     * @param orders
+     *          cmp_col_orders
+     * @param result
+     *          written with the encoded bytes
+     */
+    void encode(Object[] objects, ObjectInspector[] ois, String[] orders, BytesWritable result) throws HiveException {
+        int len = orders.length;
+
+        if (tags == null) {
+            byte[] tags = new byte[len];
+            String[] typeNames = new String[len];
+            for (int i = 0; i < len; i++) {
+                ObjectInspector oi = ois[i * 2 + 1];
+                tags[i] = tagOf(oi);
+                typeNames[i] = oi.getTypeName();
+            }
+            initSchema(orders.clone(), tags, typeNames);
+        }
+
+        try {
+            out.reset();
+            if (inlineSchema) {
+                out.write(schemaBytes);
+            }
+
+            for (int i = 0; i < len; i += 8) {
+                int bits = 0;
+                for (int j = i; j < Math.min(i + 8, len); j++) {
+                    if (objects[j * 2 + 1] == null) {
+                        bits |= 1 << (j - i);
+                    }
+                }
+                out.writeByte(bits);
+            }
+
+            for (int i = 0; i < len; i++) {
+                int index = i * 2 + 1;
+                if (objects[index] != null) {
+                    writeValue(i, objects[index], ois[index]);
+                }
+            }
+        } catch (IOException e) {
+            throw new HiveException(e);
+        }
+
+        result.set(out.getData(), 0, out.getLength());
+    }
+
+    /**
+     * Decode cmp_cols. The results are available through getValues() until the next call.
+     */
+    void decode(byte[] bytes, int start, int length) throws HiveException {
+        if (inlineSchema) {
+            int schemaLength = readSchema(bytes, start, length);
+            start += schemaLength;
+            length -= schemaLength;
+        } else if (tags == null) {
+            throw new HiveException("The schema of cmp_cols is not set");
+        }
+        in.reset(bytes, start, length);
+
+        try {
+            in.readFully(nullBits);
+            int len = tags.length;
+            for (int i = 0; i < len; i++) {
+                if (((nullBits[i / 8] >> (i % 8)) & 1) == 1) {
+                    values[i] = null;
+                } else {
+                    values[i] = readValue(i, tags[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new HiveException(e);
+        }
+    }
+
+    String[] getOrders() {
+        return orders;
+    }
+
+    Object[] getValues() {
+        return values;
+    }
+
+    ObjectInspector[] getObjectInspectors() {
+        return ois;
+    }
+
+    /**
+     * ObjectInspectors for a row of a partial in the layout of UDAF parameters.
+     * call after setSchema() or decode().
+     *
+     * @param valueOI
+     *          ObjectInspector for val_col of the partial
+     * @return
+     *          val_col and the decoded cmp_cols. null for cmp_col_orders.
+     */
+    ObjectInspector[] getRowObjectInspectors(ObjectInspector valueOI) {
+        ObjectInspector[] ret = new ObjectInspector[ois.length * 2 + 1];
+        ret[0] = valueOI;
+        for (int i = 0; i < ois.length; i++) {
+            ret[i * 2 + 1] = ois[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Build the schema, its encoded bytes, and holders and ObjectInspectors for decoded values.
+     *
+     * @param typeNames
+     *          type names of cmp_cols, only used for TAG_OTHER
+     */
+    private void initSchema(String[] orders, byte[] tags, String[] typeNames) throws HiveException {
+        int len = orders.length;
+        this.orders = orders;
+        this.tags = tags;
+        serDes = new ColumnSerDe[len];
+        nullBits = new byte[(len + 7) / 8];
+        holders = new Object[len];
+        values = new Object[len];
+        ois = new ObjectInspector[len];
+
+        DataOutputBuffer schema = new DataOutputBuffer();
+        try {
+            WritableUtils.writeVInt(schema, len);
+            for (int i = 0; i < len; i += 8) {
+                int bits = 0;
+                for (int j = i; j < Math.min(i + 8, len); j++) {
+                    if (FirstOrderedBy.DESC_ORDER.equals(orders[j])) {
+                        bits |= 1 << (j - i);
+                    }
+                }
+                schema.writeByte(bits);
+            }
+            schema.write(tags);
+
+            for (int i = 0; i < len; i++) {
+                if (tags[i] == TAG_OTHER) {
+                    serDes[i] = new ColumnSerDe(typeNames[i]);
+                    ois[i] = serDes[i].fieldOI;
+                    Text.writeString(schema, typeNames[i]);
+                } else {
+                    holders[i] = newHolder(tags[i]);
+                    ois[i] = PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(categoryOf(tags[i]));
+                }
+            }
+        } catch (IOException e) {
+            throw new HiveException(e);
+        }
+        schemaBytes = Arrays.copyOf(schema.getData(), schema.getLength());
+    }
+
+    /**
+     * Read an inline schema. Only the first one is parsed, and later ones must be the same bytes.
+     *
+     * @return
+     *          the length of the schema
+     */
+    private int readSchema(byte[] bytes, int start, int length) throws HiveException {
+        if (schemaBytes != null) {
+            int len = schemaBytes.length;
+            if (length < len || WritableComparator.compareBytes(bytes, start, len, schemaBytes, 0, len) != 0) {
+                throw new HiveException("cmp_cols with different types or orders cannot be merged");
+            }
+            return len;
+        }
+
+        in.reset(bytes, start, length);
+        try {
+            int len = WritableUtils.readVInt(in);
+            byte[] orderBits = new byte[(len + 7) / 8];
+            in.readFully(orderBits);
+            byte[] tags = new byte[len];
+            in.readFully(tags);
+
+            String[] orders = new String[len];
+            String[] typeNames = new String[len];
+            for (int i = 0; i < len; i++) {
+                orders[i] = ((orderBits[i / 8] >> (i % 8)) & 1) == 1 ? FirstOrderedBy.DESC_ORDER : FirstOrderedBy.ASC_ORDER;
+                typeNames[i] = tags[i] == TAG_OTHER ? Text.readString(in) : null;
+            }
+            initSchema(orders, tags, typeNames);
+        } catch (IOException e) {
+            throw new HiveException(e);
+        }
+        return in.getPosition() - start;
+    }
+
+    private void writeValue(int i, Object o, ObjectInspector oi) throws IOException, HiveException {
+        switch (tags[i]) {
+            case TAG_BOOLEAN:
+                out.writeBoolean(((BooleanObjectInspector) oi).get(o));
+                break;
+            case TAG_BYTE:
+                out.writeByte(((ByteObjectInspector) oi).get(o));
+                break;
+            case TAG_SHORT:
+                WritableUtils.writeVInt(out, ((ShortObjectInspector) oi).get(o));
+                break;
+            case TAG_INT:
+                WritableUtils.writeVInt(out, ((IntObjectInspector) oi).get(o));
+                break;
+            case TAG_LONG:
+                WritableUtils.writeVLong(out, ((LongObjectInspector) oi).get(o));
+                break;
+            case TAG_FLOAT:
+                out.writeFloat(((FloatObjectInspector) oi).get(o));
+                break;
+            case TAG_DOUBLE:
+                out.writeDouble(((DoubleObjectInspector) oi).get(o));
+                break;
+            case TAG_STRING:
+                StringObjectInspector soi = (StringObjectInspector) oi;
+                if (soi.preferWritable()) {
+                    soi.getPrimitiveWritableObject(o).write(out);
+                } else {
+                    Text.writeString(out, soi.getPrimitiveJavaObject(o));
+                }
+                break;
+            case TAG_TIMESTAMP:
+                Timestamp ts = ((TimestampObjectInspector) oi).getPrimitiveJavaObject(o);
+                WritableUtils.writeVLong(out, ts.getTime());
+                WritableUtils.writeVInt(out, ts.getNanos());
+                break;
+            case TAG_BINARY:
+                BytesWritable bw = ((BinaryObjectInspector) oi).getPrimitiveWritableObject(o);
+                WritableUtils.writeVInt(out, bw.getLength());
+                out.write(bw.getBytes(), 0, bw.getLength());
+                break;
+            default:
+                BytesWritable serialized = serDes[i].serialize(o, oi);
+                WritableUtils.writeVInt(out, serialized.getLength());
+                out.write(serialized.getBytes(), 0, serialized.getLength());
+                break;
+        }
+    }
+
+    private Object readValue(int i, byte tag) throws IOException, HiveException {
+        Object holder = holders[i];
+
+        switch (tag) {
+            case TAG_BOOLEAN:
+                ((BooleanWritable) holder).set(in.readBoolean());
+                return holder;
+            case TAG_BYTE:
+                ((ByteWritable) holder).set(in.readByte());
+                return holder;
+            case TAG_SHORT:
+                ((ShortWritable) holder).set((short) WritableUtils.readVInt(in));
+                return holder;
+            case TAG_INT:
+                ((IntWritable) holder).set(WritableUtils.readVInt(in));
+                return holder;
+            case TAG_LONG:
+                ((LongWritable) holder).set(WritableUtils.readVLong(in));
+                return holder;
+            case TAG_FLOAT:
+                ((FloatWritable) holder).set(in.readFloat());
+                return holder;
+            case TAG_DOUBLE:
+                ((DoubleWritable) holder).set(in.readDouble());
+                return holder;
+            case TAG_STRING:
+                ((Text) holder).readFields(in);
+                return holder;
+            case TAG_TIMESTAMP:
+                TimestampHolder th = (TimestampHolder) holder;
+                th.ts.setTime(WritableUtils.readVLong(in));
+                th.ts.setNanos(WritableUtils.readVInt(in));
+                th.writable.set(th.ts);
+                return th.writable;
+            case TAG_BINARY: {
+                int len = WritableUtils.readVInt(in);
+                ((BytesWritable) holder).set(in.getData(), in.getPosition(), len);
+                in.skipBytes(len);
+                return holder;
+            }
+            default: {
+                int len = WritableUtils.readVInt(in);
+                Object value = serDes[i].deserialize(in.getData(), in.getPosition(), len);
+                in.skipBytes(len);
+                return value;
+            }
+        }
+    }
+
+    static byte tagOf(ObjectInspector oi) {
+        if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            return TAG_OTHER;
+        }
+
+        switch (((PrimitiveObjectInspector) oi).getPrimitiveCategory()) {
+            case BOOLEAN:
+                return TAG_BOOLEAN;
+            case BYTE:
+                return TAG_BYTE;
+            case SHORT:
+                return TAG_SHORT;
+            case INT:
+                return TAG_INT;
+            case LONG:
+                return TAG_LONG;
+            case FLOAT:
+                return TAG_FLOAT;
+            case DOUBLE:
+                return TAG_DOUBLE;
+            case STRING:
+                return TAG_STRING;
+            case TIMESTAMP:
+                return TAG_TIMESTAMP;
+            case BINARY:
+                return TAG_BINARY;
+            default:
+                return TAG_OTHER;
+        }
+    }
+
+    private static PrimitiveObjectInspector.PrimitiveCategory categoryOf(byte tag) throws HiveException {
+        switch (tag) {
+            case TAG_BOOLEAN:
+                return PrimitiveObjectInspector.PrimitiveCategory.BOOLEAN;
+            case TAG_BYTE:
+                return PrimitiveObjectInspector.PrimitiveCategory.BYTE;
+            case TAG_SHORT:
+                return PrimitiveObjectInspector.PrimitiveCategory.SHORT;
+            case TAG_INT:
+                return PrimitiveObjectInspector.PrimitiveCategory.INT;
+            case TAG_LONG:
+                return PrimitiveObjectInspector.PrimitiveCategory.LONG;
+            case TAG_FLOAT:
+                return PrimitiveObjectInspector.PrimitiveCategory.FLOAT;
+            case TAG_DOUBLE:
+                return PrimitiveObjectInspector.PrimitiveCategory.DOUBLE;
+            case TAG_STRING:
+                return PrimitiveObjectInspector.PrimitiveCategory.STRING;
+            case TAG_TIMESTAMP:
+                return PrimitiveObjectInspector.PrimitiveCategory.TIMESTAMP;
+            case TAG_BINARY:
+                return PrimitiveObjectInspector.PrimitiveCategory.BINARY;
+            default:
+                throw new HiveException("Unknown type tag: " + tag);
+        }
+    }
+
+    private static Object newHolder(byte tag) throws HiveException {
+        switch (tag) {
+            case TAG_BOOLEAN:
+                return new BooleanWritable();
+            case TAG_BYTE:
+                return new ByteWritable();
+            case TAG_SHORT:
+                return new ShortWritable();
+            case TAG_INT:
+                return new IntWritable();
+            case TAG_LONG:
+                return new LongWritable();
+            case TAG_FLOAT:
+                return new FloatWritable();
+            case TAG_DOUBLE:
+                return new DoubleWritable();
+            case TAG_STRING:
+                return new Text();
+            case TAG_TIMESTAMP:
+                return new TimestampHolder();
+            case TAG_BINARY:
+                return new BytesWritable();
+            default:
+                throw new HiveException("Unknown type tag: " + tag);
+        }
+    }
+
+    private static class TimestampHolder {
+        // TimestampWritable.set(Timestamp) keeps the reference, so the Timestamp is owned here
+        final Timestamp ts = new Timestamp(0);
+        final TimestampWritable writable = new TimestampWritable();
+    }
+
+    /**
+     * LazyBinarySerDe for a single column of a type without a compact encoding.
+     */
+    static class ColumnSerDe {
+        final String typeName;
+        final ObjectInspector fieldOI;
+
+        private final LazyBinarySerDe serde = new LazyBinarySerDe();
+        private final StructObjectInspector rowOI;
+        private final StructField field;
+        private final Object[] row = new Object[1];
+        private final BytesWritable bytes = new BytesWritable();
+
+        // built on the first serialize(), because the input ObjectInspector is only known then
+        private ObjectInspector inputOI;
+        private StructObjectInspector inputRowOI;
+
+        ColumnSerDe(String typeName) throws HiveException {
+            this.typeName = typeName;
+
+            Properties props = new Properties();
+            props.setProperty("columns", "c");
+            props.setProperty("columns.types", typeName);
+            try {
+                serde.initialize(null, props);
+                rowOI = (StructObjectInspector) serde.getObjectInspector();
+            } catch (SerDeException e) {
+                throw new HiveException(e);
+            }
+            field = rowOI.getAllStructFieldRefs().get(0);
+            fieldOI = field.getFieldObjectInspector();
+        }
+
+        BytesWritable serialize(Object o, ObjectInspector oi) throws HiveException {
+            if (inputOI != oi) {
+                inputOI = oi;
+                inputRowOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+                        Arrays.asList("c"), Arrays.asList(oi));
+            }
+
+            row[0] = o;
+            try {
+                return (BytesWritable) serde.serialize(row, inputRowOI);
+            } catch (SerDeException e) {
+                throw new HiveException(e);
+            }
+        }
+
+        /**
+         * The result refers to a buffer of this ColumnSerDe, and is valid until the next call.
+         */
+        Object deserialize(byte[] data, int start, int length) throws HiveException {
+            bytes.set(data, start, length);
+            try {
+                return rowOI.getStructFieldData(serde.deserialize(bytes), field);
+            } catch (SerDeException e) {
+                throw new HiveException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
+
+/**
+ * Compares a buffered cmp_col value with a parameter value.
+ *
+ * A comparator is built once in init() for each cmp_col, so the type dispatch
+ * and the cmp_col_order are resolved before the first row arrives.
+ * The result follows the contract of FirstAgg.compareTo:
+ * &gt; 0 when the buffered value comes first in the specified order.
+ */
+abstract class ColumnComparator {
+    // -1 for ASC, 1 for DESC
+    private final int sign;
+
+    ColumnComparator(String order) {
+        this.sign = FirstOrderedBy.ASC_ORDER.equalsIgnoreCase(order) ? -1 : 1;
+    }
+
+    /**
+     * Compare a buffered value with a parameter value.
+     * nulls are treated as the smallest value, as ObjectInspectorUtils.compare does.
+     */
+    final int compare(Object buffered, Object param) {
+        if (buffered == null) {
+            return param == null ? 0 : -sign;
+        }
+        if (param == null) {
+            return sign;
+        }
+        return sign * compareNonNull(buffered, param);
+    }
+
+    abstract int compareNonNull(Object buffered, Object param);
+
+    /**
+     * Create comparators for all cmp_cols.
+     *
+     * @param bufferedOIs
+     *          ObjectInspectors for buffered values in the layout of UDAF parameters
+     * @param paramOIs
+     *          ObjectInspectors for compared values in the same layout
+     * @param orders
+     *          cmp_col_orders
+     */
+    static ColumnComparator[] create(ObjectInspector[] bufferedOIs, ObjectInspector[] paramOIs, String[] orders) {
+        int len = orders.length;
+        ColumnComparator[] ret = new ColumnComparator[len];
+        for (int i = 0; i < len; i++) {
+            int index = i * 2 + 1;
+            ret[i] = create(bufferedOIs[index], paramOIs[index], orders[i]);
+        }
+        return ret;
+    }
+
+    static ColumnComparator create(ObjectInspector bufferedOI, ObjectInspector paramOI, String order) {
+        if (bufferedOI.getCategory() == ObjectInspector.Category.PRIMITIVE &&
+            paramOI.getCategory() == ObjectInspector.Category.PRIMITIVE) {
+            PrimitiveObjectInspector bpoi = (PrimitiveObjectInspector) bufferedOI;
+            PrimitiveObjectInspector ppoi = (PrimitiveObjectInspector) paramOI;
+
+            if (bpoi.getPrimitiveCategory() == ppoi.getPrimitiveCategory()) {
+                switch (bpoi.getPrimitiveCategory()) {
+                    case INT:
+                        return new IntComparator(bpoi, ppoi, order);
+                    case LONG:
+                        return new LongComparator(bpoi, ppoi, order);
+                    case DOUBLE:
+                        return new DoubleComparator(bpoi, ppoi, order);
+                    case STRING:
+                        // as ObjectInspectorUtils.compare, strings are compared as UTF-8 bytes
+                        // unless both sides are java Strings
+                        if (bpoi.preferWritable() || ppoi.preferWritable()) {
+                            return new TextComparator(bpoi, ppoi, order);
+                        }
+                        return new StringComparator(bpoi, ppoi, order);
+                    case TIMESTAMP:
+                        return new TimestampComparator(bpoi, ppoi, order);
+                    default:
+                        break;
+                }
+            }
+        }
+        return new GenericComparator(bufferedOI, paramOI, order);
+    }
+
+    static class IntComparator extends ColumnComparator {
+        private final IntObjectInspector boi;
+        private final IntObjectInspector poi;
+
+        IntComparator(ObjectInspector boi, ObjectInspector poi, String order) {
+            super(order);
+            this.boi = (IntObjectInspector) boi;
+            this.poi = (IntObjectInspector) poi;
+        }
+
+        @Override
+        int compareNonNull(Object buffered, Object param) {
+            int b = boi.get(buffered);
+            int p = poi.get(param);
+            return b < p ? -1 : (b == p ? 0 : 1);
+        }
+    }
+
+    static class LongComparator extends ColumnComparator {
+        private final LongObjectInspector boi;
+        private final LongObjectInspector poi;
+
+        LongComparator(ObjectInspector boi, ObjectInspector poi, String order) {
+            super(order);
+            this.boi = (LongObjectInspector) boi;
+            this.poi = (LongObjectInspector) poi;
+        }
+
+        @Override
+        int compareNonNull(Object buffered, Object param) {
+            long b = boi.get(buffered);
+            long p = poi.get(param);
+            return b < p ? -1 : (b == p ? 0 : 1);
+        }
+    }
+
+    static class DoubleComparator extends ColumnComparator {
+        private final DoubleObjectInspector boi;
+        private final DoubleObjectInspector poi;
+
+        DoubleComparator(ObjectInspector boi, ObjectInspector poi, String order) {
+            super(order);
+            this.boi = (DoubleObjectInspector) boi;
+            this.poi = (DoubleObjectInspector) poi;
+        }
+
+        @Override
+        int compareNonNull(Object buffered, Object param) {
+            // same semantics as ObjectInspectorUtils.compare
+            return Double.compare(boi.get(buffered), poi.get(param));
+        }
+    }
+
+    /**
+     * Compares the UTF-8 bytes of Text directly, without decoding to java.lang.String.
+     * A java String on either side is encoded to Text, which orders supplementary characters as bytes do.
+     */
+    static class TextComparator extends ColumnComparator {
+        private final StringObjectInspector boi;
+        private final StringObjectInspector poi;
+
+        TextComparator(ObjectInspector boi, ObjectInspector poi, String order) {
+            super(order);
+            this.boi = (StringObjectInspector) boi;
+            this.poi = (StringObjectInspector) poi;
+        }
+
+        @Override
+        int compareNonNull(Object buffered, Object param) {
+            return boi.getPrimitiveWritableObject(buffered).compareTo(poi.getPrimitiveWritableObject(param));
+        }
+    }
+
+    static class StringComparator extends ColumnComparator {
+        private final StringObjectInspector boi;
+        private final StringObjectInspector poi;
+
+        StringComparator(ObjectInspector boi, ObjectInspector poi, String order) {
+            super(order);
+            this.boi = (StringObjectInspector) boi;
+            this.poi = (StringObjectInspector) poi;
+        }
+
+        @Override
+        int compareNonNull(Object buffered, Object param) {
+            return boi.getPrimitiveJavaObject(buffered).compareTo(poi.getPrimitiveJavaObject(param));
+        }
+    }
+
+    static class TimestampComparator extends ColumnComparator {
+        private final TimestampObjectInspector boi;
+        private final TimestampObjectInspector poi;
+        private final boolean writable;
+
+        TimestampComparator(PrimitiveObjectInspector boi, PrimitiveObjectInspector poi, String order) {
+            super(order);
+            this.boi = (TimestampObjectInspector) boi;
+            this.poi = (TimestampObjectInspector) poi;
+            this.writable = boi.preferWritable() && poi.preferWritable();
+        }
+
+        @Override
+        int compareNonNull(Object buffered, Object param) {
+            if (writable) {
+                return boi.getPrimitiveWritableObject(buffered).compareTo(poi.getPrimitiveWritableObject(param));
+            }
+            return boi.getPrimitiveJavaObject(buffered).compareTo(poi.getPrimitiveJavaObject(param));
+        }
+    }
+
+    /**
+     * Fallback for complex and less common primitive types.
+     */
+    static class GenericComparator extends ColumnComparator {
+        private final ObjectInspector boi;
+        private final ObjectInspector poi;
+
+        GenericComparator(ObjectInspector boi, ObjectInspector poi, String order) {
+            super(order);
+            this.boi = boi;
+            this.poi = poi;
+        }
+
+        @Override
+        int compareNonNull(Object buffered, Object param) {
+            return ObjectInspectorUtils.compare(buffered, boi, param, poi);
+        }
+    }
+}
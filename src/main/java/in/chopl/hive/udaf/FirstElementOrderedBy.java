@@ -0,0 +1,140 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+
+@Description(name = "first_element",
+             value = "_FUNC_(array, val_field, cmp_field1, cmp_field_order1, cmp_field2, cmp_field_order2, ...)" +
+                     "- Returns the field 'val_field' of the first struct in 'array' ordered by fields 'cmp_fields'",
+             extended = "Example:\n" +
+                        "  SELECT _FUNC_(pages, 'url', 'ts', 'ASC') FROM sessions")
+public class FirstElementOrderedBy extends GenericUDF {
+    private ListObjectInspector listOI;
+    private StructObjectInspector elementOI;
+    private StructField valueField;
+    private StructField[] cmpFields;
+    // compare fields of the winner with those of an element. both are read by elementOI.
+    private ColumnComparator[] comparators;
+
+    @Override
+    public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
+        int len = arguments.length;
+        if (len < 4) {
+            throw new UDFArgumentLengthException("array, val_field and at least one cmp_field are required");
+        }
+        if (len % 2 != 0) {
+            throw new UDFArgumentLengthException("A number of cmp_field and cmp_field_order are mismatched");
+        }
+
+        if (arguments[0].getCategory() != ObjectInspector.Category.LIST ||
+            ((ListObjectInspector) arguments[0]).getListElementObjectInspector().getCategory() != ObjectInspector.Category.STRUCT) {
+            throw new UDFArgumentTypeException(0, "A type of array must be array<struct>");
+        }
+        listOI = (ListObjectInspector) arguments[0];
+        elementOI = (StructObjectInspector) listOI.getListElementObjectInspector();
+
+        valueField = getField(arguments, 1);
+
+        int numCmpFields = (len - 2) / 2;
+        cmpFields = new StructField[numCmpFields];
+        comparators = new ColumnComparator[numCmpFields];
+        for (int i = 0; i < numCmpFields; i++) {
+            int index = i * 2 + 2;
+            cmpFields[i] = getField(arguments, index);
+
+            ObjectInspector fieldOI = cmpFields[i].getFieldObjectInspector();
+            if (!ObjectInspectorUtils.compareSupported(fieldOI)) {
+                throw new UDFArgumentTypeException(index,
+                        "A type of cmp_field must support comparison, but " + fieldOI.getTypeName() + " was passed");
+            }
+
+            String order = getConstantString(arguments, index + 1).toUpperCase();
+            if (!order.equals(FirstOrderedBy.ASC_ORDER) && !order.equals(FirstOrderedBy.DESC_ORDER)) {
+                throw new UDFArgumentTypeException(index + 1, order + " is invalid for cmp_field_order");
+            }
+            comparators[i] = ColumnComparator.create(fieldOI, fieldOI, order);
+        }
+
+        return valueField.getFieldObjectInspector();
+    }
+
+    private StructField getField(ObjectInspector[] arguments, int index) throws UDFArgumentException {
+        String name = getConstantString(arguments, index);
+        try {
+            return elementOI.getStructFieldRef(name);
+        } catch (RuntimeException e) {
+            throw new UDFArgumentTypeException(index, "No field " + name + " in " + elementOI.getTypeName());
+        }
+    }
+
+    private static String getConstantString(ObjectInspector[] arguments, int index) throws UDFArgumentException {
+        ObjectInspector oi = arguments[index];
+        if (!(oi instanceof ConstantObjectInspector) || oi.getCategory() != ObjectInspector.Category.PRIMITIVE ||
+            ((PrimitiveObjectInspector) oi).getPrimitiveCategory() != PrimitiveObjectInspector.PrimitiveCategory.STRING) {
+            throw new UDFArgumentTypeException(index, "A field name and an order must be constant strings");
+        }
+        return ((ConstantObjectInspector) oi).getWritableConstantValue().toString();
+    }
+
+    /**
+     * Select the winner in one pass over the array. Elements are only read through elementOI, and the winner
+     * is kept as a reference, so elements are never copied. Ties keep the earlier element, and null elements
+     * are skipped.
+     */
+    @Override
+    public Object evaluate(DeferredObject[] arguments) throws HiveException {
+        Object list = arguments[0].get();
+        if (list == null) {
+            return null;
+        }
+
+        int len = listOI.getListLength(list);
+        Object winner = null;
+        for (int i = 0; i < len; i++) {
+            Object element = listOI.getListElement(list, i);
+            if (element != null && (winner == null || compare(winner, element) < 0)) {
+                winner = element;
+            }
+        }
+
+        return winner == null ? null : elementOI.getStructFieldData(winner, valueField);
+    }
+
+    /**
+     * The return value is the same as FirstAgg.compareTo(Object[], ColumnComparator[]).
+     */
+    private int compare(Object winner, Object element) {
+        for (int i = 0; i < cmpFields.length; i++) {
+            StructField field = cmpFields[i];
+            int cmp = comparators[i].compare(
+                    elementOI.getStructFieldData(winner, field), elementOI.getStructFieldData(element, field));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String getDisplayString(String[] children) {
+        StringBuilder sb = new StringBuilder("first_element(");
+        for (int i = 0; i < children.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(children[i]);
+        }
+        return sb.append(")").toString();
+    }
+}
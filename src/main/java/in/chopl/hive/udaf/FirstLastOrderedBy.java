@@ -0,0 +1,256 @@
+package in.chopl.hive.udaf;
+
+import in.chopl.hive.udaf.FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.*;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Description(name = "first_last", value = "_FUNC_(val_col, cmp_col1, cmp_col_order1, cmp_col2, cmp_cols_order1, ...)" +
+                                           "- Returns a struct of the first and the last values specified with 'val_col' " +
+                                           "ordered by columns specified with 'cmp_cols'")
+public class FirstLastOrderedBy extends AbstractGenericUDAFResolver {
+
+    static final String FIRST = "first";
+    static final String LAST = "last";
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+        FirstOrderedBy.checkParameters(parameters, 0);
+
+        return new GenericUDAFFirstLastOrderedByEvaluator();
+    }
+
+    /**
+     * Keeps the first and the last rows of a group in one buffer.
+     * Ties keep the earlier row for both, as first() does.
+     */
+    public static class GenericUDAFFirstLastOrderedByEvaluator extends GenericUDAFEvaluator {
+        // ObjectInspectors in the layout of FirstOrderedBy parameters.
+        // in PARTIAL2 and FINAL, cmp_cols come from the decoded partial, and cmp_col_orders are null.
+        private ObjectInspector[] inputOIs;
+        // ObjectInspectors for objects buffered in FirstAggs
+        private ObjectInspector[] standardInputOIs;
+        private ValueSlot[] slots;
+        private String[] orders;
+        private ColumnComparator[] comparators;
+
+        // for partial results. a partial is a struct of the first and the last rows and cmp_types,
+        // and each row is a struct of val_col and cmp_cols encoded by CmpColumnsCodec.
+        private CmpColumnsCodec codec;
+        private StructObjectInspector partialOI;
+        private StructField firstField;
+        private StructField lastField;
+        // both rows have the same type, so they share the ObjectInspector
+        private StructObjectInspector rowOI;
+        private StructField valueField;
+        private StructField cmpColumnsField;
+        private BinaryObjectInspector cmpColumnsOI;
+        private StructObjectInspector cmpTypesOI;
+        private Object[] partialRow;
+        private Object[] partialFirst;
+        private Object[] partialLast;
+        private Object[] partialResult;
+
+        private Object[] result;
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
+            super.init(mode, parameters);
+
+            switch (mode) {
+                case PARTIAL1:
+                    initRowInput(parameters);
+                    return makePartialOI(standardInputOIs[0],
+                            CmpColumnsCodec.makeSchemaObjectInspector(standardInputOIs, orders));
+                case PARTIAL2:
+                    initPartialInput((StructObjectInspector) parameters[0]);
+                    return makePartialOI(ValueSlot.getObjectInspector(valueField.getFieldObjectInspector()), cmpTypesOI);
+                case FINAL:
+                    initPartialInput((StructObjectInspector) parameters[0]);
+                    return makeOutputOI(ValueSlot.getObjectInspector(valueField.getFieldObjectInspector()));
+                case COMPLETE:
+                    initRowInput(parameters);
+                    return makeOutputOI(standardInputOIs[0]);
+                default:
+                    throw new RuntimeException("Unknown aggregation mode: "+ mode);
+            }
+        }
+
+        private void initRowInput(ObjectInspector[] parameters) throws HiveException {
+            FirstOrderedBy.checkInputOIs(parameters, 0);
+            inputOIs = parameters;
+            orders = FirstOrderedBy.selectConstantOrders(parameters, 0);
+            initComparators();
+            codec = new CmpColumnsCodec(false);
+        }
+
+        private void initPartialInput(StructObjectInspector soi) throws HiveException {
+            partialOI = soi;
+            firstField = soi.getStructFieldRef(FIRST);
+            lastField = soi.getStructFieldRef(LAST);
+            rowOI = (StructObjectInspector) firstField.getFieldObjectInspector();
+            valueField = rowOI.getStructFieldRef(FirstOrderedBy.VALUE_COLUMN);
+            cmpColumnsField = rowOI.getStructFieldRef(FirstOrderedBy.COMPARED_COLUMNS);
+            cmpColumnsOI = (BinaryObjectInspector) cmpColumnsField.getFieldObjectInspector();
+            cmpTypesOI = (StructObjectInspector) soi.getStructFieldRef(FirstOrderedBy.COMPARED_TYPES).getFieldObjectInspector();
+            codec = new CmpColumnsCodec(false);
+            codec.setSchema(cmpTypesOI);
+            initMergeState();
+        }
+
+        /**
+         * Build states which depend on cmp_cols from the schema of cmp_types.
+         */
+        private void initMergeState() {
+            inputOIs = codec.getRowObjectInspectors(valueField.getFieldObjectInspector());
+            partialRow = new Object[inputOIs.length];
+            orders = codec.getOrders();
+            initComparators();
+        }
+
+        private void initComparators() {
+            standardInputOIs = ValueSlot.getObjectInspectors(inputOIs);
+            slots = ValueSlot.create(inputOIs);
+            comparators = ColumnComparator.create(standardInputOIs, inputOIs, orders);
+        }
+
+        private StandardStructObjectInspector makePartialOI(ObjectInspector valueOI, ObjectInspector cmpTypesOI) {
+            List<String> rowFieldNames = new ArrayList<String>(2);
+            List<ObjectInspector> rowFieldOIs = new ArrayList<ObjectInspector>(2);
+            rowFieldNames.add(FirstOrderedBy.VALUE_COLUMN);
+            rowFieldOIs.add(valueOI);
+            rowFieldNames.add(FirstOrderedBy.COMPARED_COLUMNS);
+            rowFieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+            StandardStructObjectInspector rowOI =
+                    ObjectInspectorFactory.getStandardStructObjectInspector(rowFieldNames, rowFieldOIs);
+
+            List<String> fieldNames = new ArrayList<String>(3);
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(3);
+            fieldNames.add(FIRST);
+            fieldOIs.add(rowOI);
+            fieldNames.add(LAST);
+            fieldOIs.add(rowOI);
+            fieldNames.add(FirstOrderedBy.COMPARED_TYPES);
+            fieldOIs.add(cmpTypesOI);
+
+            partialFirst = new Object[] {null, new BytesWritable()};
+            partialLast = new Object[] {null, new BytesWritable()};
+            // cmp_types is left null
+            partialResult = new Object[] {partialFirst, partialLast, null};
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+
+        private StandardStructObjectInspector makeOutputOI(ObjectInspector valueOI) {
+            List<String> fieldNames = new ArrayList<String>(2);
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(2);
+            fieldNames.add(FIRST);
+            fieldOIs.add(valueOI);
+            fieldNames.add(LAST);
+            fieldOIs.add(valueOI);
+
+            result = new Object[2];
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+
+        static class FirstLastAgg implements AggregationBuffer {
+            final FirstAgg first = new FirstAgg();
+            final FirstAgg last = new FirstAgg();
+
+            public void init() {
+                first.init();
+                last.init();
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            return new FirstLastAgg();
+        }
+
+        @Override
+        public void reset(AggregationBuffer agg) throws HiveException {
+            ((FirstLastAgg) agg).init();
+        }
+
+        @Override
+        public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+            aggregate((FirstLastAgg) agg, parameters);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+            FirstLastAgg flagg = (FirstLastAgg) agg;
+            if (flagg.first.empty) {
+                return null;
+            }
+
+            partialFirst[0] = flagg.first.objects[0];
+            codec.encode(flagg.first.objects, standardInputOIs, orders, (BytesWritable) partialFirst[1]);
+            partialLast[0] = flagg.last.objects[0];
+            codec.encode(flagg.last.objects, standardInputOIs, orders, (BytesWritable) partialLast[1]);
+            return partialResult;
+        }
+
+        @Override
+        public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+
+            // the first and the last rows of the merged groups are among those of both sides
+            mergeRow((FirstLastAgg) agg, partialOI.getStructFieldData(partial, firstField));
+            mergeRow((FirstLastAgg) agg, partialOI.getStructFieldData(partial, lastField));
+        }
+
+        private void mergeRow(FirstLastAgg agg, Object row) throws HiveException {
+            BytesWritable cmpColumns =
+                    cmpColumnsOI.getPrimitiveWritableObject(rowOI.getStructFieldData(row, cmpColumnsField));
+            codec.decode(cmpColumns.getBytes(), 0, cmpColumns.getLength());
+
+            Object[] values = codec.getValues();
+            partialRow[0] = rowOI.getStructFieldData(row, valueField);
+            for (int i = 0; i < values.length; i++) {
+                partialRow[i * 2 + 1] = values[i];
+            }
+            aggregate(agg, partialRow);
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer agg) throws HiveException {
+            FirstLastAgg flagg = (FirstLastAgg) agg;
+            if (flagg.first.empty) {
+                return null;
+            }
+
+            result[0] = flagg.first.objects[0];
+            result[1] = flagg.last.objects[0];
+            return result;
+        }
+
+        /**
+         * Update both rows with a row in the layout of inputOIs.
+         * A row which comes before the first one cannot come after the last one, so a row which replaces the first
+         * is compared only once.
+         */
+        private void aggregate(FirstLastAgg agg, Object[] row) {
+            if (agg.first.empty) {
+                agg.first.copy(row, inputOIs, slots);
+                agg.last.copy(row, inputOIs, slots);
+            } else if (agg.first.compareTo(row, comparators) < 0) {
+                agg.first.copy(row, inputOIs, slots);
+            } else if (agg.last.compareTo(row, comparators) > 0) {
+                agg.last.copy(row, inputOIs, slots);
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package in.chopl.hive.udaf;
+
+import in.chopl.hive.udaf.FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.*;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+@Description(name = "first_n", value = "_FUNC_(n, val_col, cmp_col1, cmp_col_order1, cmp_col2, cmp_cols_order1, ...)" +
+                                        "- Returns an array of the first n values specified with 'val_col' ordered by columns specified with 'cmp_cols'")
+public class FirstNOrderedBy extends AbstractGenericUDAFResolver {
+
+    static final String N = "n";
+    static final String ENTRIES = "entries";
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+        if (parameters.length < 1) {
+            throw new UDFArgumentLengthException("n is required");
+        }
+
+        if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE ||
+            ((PrimitiveTypeInfo) parameters[0]).getPrimitiveCategory() != PrimitiveObjectInspector.PrimitiveCategory.INT) {
+            throw new UDFArgumentTypeException(0, "A type of n must be int");
+        }
+
+        FirstOrderedBy.checkParameters(parameters, 1);
+
+        return new GenericUDAFFirstNOrderedByEvaluator();
+    }
+
+    public static class GenericUDAFFirstNOrderedByEvaluator extends GenericUDAFEvaluator {
+        // ObjectInspectors in the layout of FirstOrderedBy parameters, without n.
+        // in PARTIAL2 and FINAL, cmp_cols come from the decoded partial, and cmp_col_orders are null.
+        private ObjectInspector[] rowOIs;
+        // ObjectInspectors for objects buffered in entries
+        private ObjectInspector[] standardRowOIs;
+        // copy rows into entries. shared by all buffers.
+        private ValueSlot[] slots;
+        private String[] orders;
+        private int n;
+
+        // compare an entry with a row
+        private ColumnComparator[] rowComparators;
+        // compare entries with each other
+        private ColumnComparator[] entryComparators;
+        private Comparator<FirstAgg> entryOrder;
+
+        // reused for a row without n
+        private Object[] row;
+
+        // for partial results. a partial is a struct of n, an array of entries and cmp_types,
+        // and each entry is a struct of val_col and cmp_cols encoded by CmpColumnsCodec.
+        private CmpColumnsCodec codec;
+        private StructObjectInspector partialOI;
+        private StructField nField;
+        private StructField entriesField;
+        private ListObjectInspector entriesOI;
+        private StructObjectInspector entryOI;
+        private StructField valueField;
+        private StructField cmpColumnsField;
+        private BinaryObjectInspector cmpColumnsOI;
+        private StructObjectInspector cmpTypesOI;
+        private IntWritable partialN;
+        private List<Object[]> partialEntries;
+        private Object[] partialResult;
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
+            super.init(mode, parameters);
+
+            switch (mode) {
+                case PARTIAL1:
+                    initRowInput(parameters);
+                    return makePartialOI(standardRowOIs[0],
+                            CmpColumnsCodec.makeSchemaObjectInspector(standardRowOIs, orders));
+                case PARTIAL2:
+                    initPartialInput((StructObjectInspector) parameters[0]);
+                    return makePartialOI(ValueSlot.getObjectInspector(valueField.getFieldObjectInspector()), cmpTypesOI);
+                case FINAL:
+                    initPartialInput((StructObjectInspector) parameters[0]);
+                    return ObjectInspectorFactory.getStandardListObjectInspector(
+                            ValueSlot.getObjectInspector(valueField.getFieldObjectInspector()));
+                case COMPLETE:
+                    initRowInput(parameters);
+                    return ObjectInspectorFactory.getStandardListObjectInspector(standardRowOIs[0]);
+                default:
+                    throw new RuntimeException("Unknown aggregation mode: "+ mode);
+            }
+        }
+
+        private void initRowInput(ObjectInspector[] parameters) throws HiveException {
+            if (!(parameters[0] instanceof ConstantObjectInspector)) {
+                throw new UDFArgumentTypeException(0, "n must be constant");
+            }
+            n = ((IntObjectInspector) parameters[0]).get(((ConstantObjectInspector) parameters[0]).getWritableConstantValue());
+            if (n <= 0) {
+                throw new UDFArgumentTypeException(0, "n must be positive, but " + n + " was passed");
+            }
+
+            FirstOrderedBy.checkInputOIs(parameters, 1);
+            rowOIs = Arrays.copyOfRange(parameters, 1, parameters.length);
+            row = new Object[rowOIs.length];
+            orders = FirstOrderedBy.selectConstantOrders(parameters, 1);
+            initComparators();
+            codec = new CmpColumnsCodec(false);
+        }
+
+        private void initPartialInput(StructObjectInspector soi) throws HiveException {
+            partialOI = soi;
+            nField = soi.getStructFieldRef(N);
+            entriesField = soi.getStructFieldRef(ENTRIES);
+            entriesOI = (ListObjectInspector) entriesField.getFieldObjectInspector();
+            entryOI = (StructObjectInspector) entriesOI.getListElementObjectInspector();
+            valueField = entryOI.getStructFieldRef(FirstOrderedBy.VALUE_COLUMN);
+            cmpColumnsField = entryOI.getStructFieldRef(FirstOrderedBy.COMPARED_COLUMNS);
+            cmpColumnsOI = (BinaryObjectInspector) cmpColumnsField.getFieldObjectInspector();
+            cmpTypesOI = (StructObjectInspector) soi.getStructFieldRef(FirstOrderedBy.COMPARED_TYPES).getFieldObjectInspector();
+            codec = new CmpColumnsCodec(false);
+            codec.setSchema(cmpTypesOI);
+
+            // n, rowOIs and comparators wait for the first partial, which carries n
+            n = 0;
+            rowOIs = null;
+            orders = null;
+            rowComparators = null;
+        }
+
+        /**
+         * Build states which depend on n and cmp_cols from the first partial and the schema of cmp_types.
+         */
+        private void initMergeState(int mergeN) {
+            n = mergeN;
+            rowOIs = codec.getRowObjectInspectors(valueField.getFieldObjectInspector());
+            row = new Object[rowOIs.length];
+            orders = codec.getOrders();
+            initComparators();
+        }
+
+        private void initComparators() {
+            standardRowOIs = ValueSlot.getObjectInspectors(rowOIs);
+            slots = ValueSlot.create(rowOIs);
+            rowComparators = ColumnComparator.create(standardRowOIs, rowOIs, orders);
+            entryComparators = ColumnComparator.create(standardRowOIs, standardRowOIs, orders);
+
+            entryOrder = new Comparator<FirstAgg>() {
+                @Override
+                public int compare(FirstAgg o1, FirstAgg o2) {
+                    // an entry which comes first is smaller
+                    return -o1.compareTo(o2.objects, entryComparators);
+                }
+            };
+        }
+
+        private StandardStructObjectInspector makePartialOI(ObjectInspector valueOI, ObjectInspector cmpTypesOI) {
+            List<String> entryFieldNames = new ArrayList<String>(2);
+            List<ObjectInspector> entryFieldOIs = new ArrayList<ObjectInspector>(2);
+            entryFieldNames.add(FirstOrderedBy.VALUE_COLUMN);
+            entryFieldOIs.add(valueOI);
+            entryFieldNames.add(FirstOrderedBy.COMPARED_COLUMNS);
+            entryFieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+
+            List<String> fieldNames = new ArrayList<String>(3);
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(3);
+            fieldNames.add(N);
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+            fieldNames.add(ENTRIES);
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(
+                    ObjectInspectorFactory.getStandardStructObjectInspector(entryFieldNames, entryFieldOIs)));
+            fieldNames.add(FirstOrderedBy.COMPARED_TYPES);
+            fieldOIs.add(cmpTypesOI);
+
+            partialN = new IntWritable();
+            partialEntries = new ArrayList<Object[]>();
+            // cmp_types is left null
+            partialResult = new Object[3];
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+
+        /**
+         * A bounded heap of the first n rows.
+         * The root is the entry which comes last, so it is the one to be replaced by a new row.
+         */
+        static class FirstNAgg implements AggregationBuffer {
+            // entries[0, size) forms the heap. entries after size are kept to be reused.
+            FirstAgg[] entries;
+            int size;
+
+            FirstNAgg() {
+                init();
+            }
+
+            public void init() {
+                size = 0;
+            }
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            return new FirstNAgg();
+        }
+
+        @Override
+        public void reset(AggregationBuffer agg) throws HiveException {
+            ((FirstNAgg) agg).init();
+        }
+
+        @Override
+        public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+            System.arraycopy(parameters, 1, row, 0, row.length);
+            insert((FirstNAgg) agg, row);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+            FirstNAgg nagg = (FirstNAgg) agg;
+            if (nagg.size == 0) {
+                return null;
+            }
+
+            // entries of partial results are reused
+            while (partialEntries.size() < nagg.size) {
+                partialEntries.add(new Object[] {null, new BytesWritable()});
+            }
+
+            List<Object[]> entries = partialEntries.subList(0, nagg.size);
+            for (int i = 0; i < nagg.size; i++) {
+                FirstAgg entry = nagg.entries[i];
+                Object[] partialEntry = entries.get(i);
+                partialEntry[0] = entry.objects[0];
+                codec.encode(entry.objects, standardRowOIs, orders, (BytesWritable) partialEntry[1]);
+            }
+
+            partialN.set(n);
+            partialResult[0] = partialN;
+            partialResult[1] = entries;
+            return partialResult;
+        }
+
+        @Override
+        public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+
+            Object entries = partialOI.getStructFieldData(partial, entriesField);
+            int len = entriesOI.getListLength(entries);
+            for (int i = 0; i < len; i++) {
+                Object entry = entriesOI.getListElement(entries, i);
+                BytesWritable cmpColumns =
+                        cmpColumnsOI.getPrimitiveWritableObject(entryOI.getStructFieldData(entry, cmpColumnsField));
+                codec.decode(cmpColumns.getBytes(), 0, cmpColumns.getLength());
+
+                if (rowComparators == null) {
+                    initMergeState(PrimitiveObjectInspectorUtils.getInt(partialOI.getStructFieldData(partial, nField),
+                            (PrimitiveObjectInspector) nField.getFieldObjectInspector()));
+                }
+
+                Object[] values = codec.getValues();
+                row[0] = entryOI.getStructFieldData(entry, valueField);
+                for (int j = 0; j < values.length; j++) {
+                    row[j * 2 + 1] = values[j];
+                }
+                insert((FirstNAgg) agg, row);
+            }
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer agg) throws HiveException {
+            FirstNAgg nagg = (FirstNAgg) agg;
+            if (nagg.size == 0) {
+                return null;
+            }
+
+            FirstAgg[] sorted = Arrays.copyOf(nagg.entries, nagg.size);
+            Arrays.sort(sorted, entryOrder);
+
+            List<Object> ret = new ArrayList<Object>(sorted.length);
+            for (FirstAgg entry : sorted) {
+                ret.add(entry.objects[0]);
+            }
+            return ret;
+        }
+
+        private void insert(FirstNAgg agg, Object[] row) {
+            if (agg.entries == null) {
+                agg.entries = new FirstAgg[n];
+            }
+
+            if (agg.size < n) {
+                FirstAgg entry = agg.entries[agg.size];
+                if (entry == null) {
+                    entry = new FirstAgg();
+                    agg.entries[agg.size] = entry;
+                }
+                entry.copy(row, rowOIs, slots);
+                siftUp(agg.entries, agg.size);
+                agg.size++;
+            } else if (agg.entries[0].compareTo(row, rowComparators) < 0) {
+                // the row comes before the last entry
+                agg.entries[0].copy(row, rowOIs, slots);
+                siftDown(agg.entries, agg.size, 0);
+            }
+        }
+
+        private boolean comesFirst(FirstAgg a, FirstAgg b) {
+            return a.compareTo(b.objects, entryComparators) > 0;
+        }
+
+        private void siftUp(FirstAgg[] heap, int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (!comesFirst(heap[parent], heap[index])) {
+                    break;
+                }
+                swap(heap, parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(FirstAgg[] heap, int size, int index) {
+            while (true) {
+                int last = index;
+                int left = index * 2 + 1;
+                int right = left + 1;
+
+                if (left < size && comesFirst(heap[last], heap[left])) {
+                    last = left;
+                }
+                if (right < size && comesFirst(heap[last], heap[right])) {
+                    last = right;
+                }
+                if (last == index) {
+                    break;
+                }
+                swap(heap, index, last);
+                index = last;
+            }
+        }
+
+        private static void swap(FirstAgg[] heap, int i, int j) {
+            FirstAgg tmp = heap[i];
+            heap[i] = heap[j];
+            heap[j] = tmp;
+        }
+    }
+}
@@ -3,48 +3,97 @@ package in.chopl.hive.udaf;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Description;
-import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.serde2.objectinspector.*;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
-@Description(name = "first", value = "_FUNC_(val_col, cmp_col1, cmp_col_order1, cmp_col2, cmp_cols_order1, ...)" +
-                                      "- Returns the first value specified with 'val_col' ordered by columns specified with 'cmp_cols'")
+@Description(name = "first", value = "_FUNC_(val_col, cmp_col1, cmp_col_order1, cmp_col2, cmp_cols_order1, ...[, cmp_col_bound1])" +
+                                      "- Returns the first value specified with 'val_col' ordered by columns specified with 'cmp_cols'",
+             extended = "To take several columns from the same row, pass them as a struct:\n" +
+                        "  SELECT _FUNC_(named_struct('a', a, 'b', b), ts, 'DESC') FROM src\n" +
+                        "The optional constant cmp_col_bound1 is the best possible value of cmp_col1. Once a group " +
+                        "reaches it, later rows of the group are skipped. No row may come before it, nulls included. " +
+                        "Other cmp_cols must be at their own bounds too: null for ASC, and the maximum for DESC, " +
+                        "which is only defined for boolean and integer types:\n" +
+                        "  SELECT _FUNC_(x, priority, 'ASC', 0) FROM src")
 public class FirstOrderedBy extends AbstractGenericUDAFResolver {
 
     static final Log LOG = LogFactory.getLog(FirstOrderedBy.class.getName());
     static final String VALUE_COLUMN = "val_col";
-    static final String COMPARED_COLUMN = "cmp_col";
-    static final String COMPARED_COLUMN_ORDER = "cmp_col_order";
+    static final String COMPARED_COLUMNS = "cmp_cols";
+    // true when the buffer of a partial has reached the bounds of cmp_cols. optional in partials.
+    static final String AT_BOUND = "at_bound";
+    // always null. its type carries the types and orders of cmp_cols, see CmpColumnsCodec. optional in partials.
+    static final String COMPARED_TYPES = "cmp_types";
 
     static final String ASC_ORDER = "ASC";
     static final String DESC_ORDER = "DESC";
 
+    // when true, cmp_cols are compared as a single byte-comparable key. see SortKeyEncoder.
+    static final String NORMALIZED_KEYS_CONF = "hive.udaf.first.normalized.keys";
+    // when true, rows of each group are trusted to come in the order of cmp_cols, so the first row wins
+    static final String PRESORTED_CONF = "hive.udaf.first.presorted";
+    // with presorted input, every n-th row is compared to check the order. 0 disables the check.
+    static final String PRESORTED_CHECK_INTERVAL_CONF = "hive.udaf.first.presorted.check.interval";
+
     @Override
     public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+        checkParametersWithBound(parameters);
+
+        GenericUDAFFirstOrderedByEvaluator evaluator = new GenericUDAFFirstOrderedByEvaluator();
+        evaluator.setNormalizedKeys(getBooleanConf(NORMALIZED_KEYS_CONF, false));
+        evaluator.setPresorted(getBooleanConf(PRESORTED_CONF, false));
+        evaluator.setPresortedCheckInterval(getIntConf(PRESORTED_CHECK_INTERVAL_CONF, 0));
+        return evaluator;
+    }
+
+    /**
+     * Check types of val_col and pairs of cmp_col and cmp_col_order.
+     *
+     * @param parameters
+     *          types of UDAF parameters
+     * @param offset
+     *          index of val_col. parameters before it are checked by the caller.
+     */
+    static void checkParameters(TypeInfo[] parameters, int offset) throws SemanticException {
         int len = parameters.length;
 
-        if (len < 3) {
+        if (len - offset < 3) {
             throw new UDFArgumentLengthException("At least one cmp_col is required");
         }
 
-        if ((len % 2) != 1) {
+        if (((len - offset) % 2) != 1) {
             throw new UDFArgumentLengthException("A number of cmp_col and cmp_col_order are mismatched");
         }
 
-        for (int i = 1; i < len; i += 2){
+        for (int i = offset + 1; i < len; i += 2){
             ObjectInspector cmpColOI = TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(parameters[i]);
             ObjectInspector orderOI = TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(parameters[i+1]);
 
@@ -59,19 +108,292 @@ public class FirstOrderedBy extends AbstractGenericUDAFResolver {
                 throw new UDFArgumentTypeException(i + 1, "A type of cmp_col_order must be string");
             }
         }
+    }
+
+    /**
+     * Check types of the parameters of first(), which may end with cmp_col_bound1.
+     */
+    static void checkParametersWithBound(TypeInfo[] parameters) throws SemanticException {
+        int len = parameters.length;
+        if (!hasBound(len)) {
+            checkParameters(parameters, 0);
+            return;
+        }
+
+        checkParameters(Arrays.copyOf(parameters, len - 1), 0);
+        // an even number of parameters is also what a missing cmp_col_order looks like
+        if (!isBoundComparable(parameters[1], parameters[len - 1])) {
+            throw new UDFArgumentLengthException("A number of cmp_col and cmp_col_order are mismatched, " +
+                    "or cmp_col_bound1 of " + parameters[len - 1].getTypeName() +
+                    " cannot be compared with cmp_col1 of " + parameters[1].getTypeName());
+        }
+    }
+
+    /**
+     * @return
+     *          true if a constant of boundType can be converted to cmp_col1 of cmpType.
+     *          numbers are converted to each other, and strings to timestamps. other types must match.
+     */
+    static boolean isBoundComparable(TypeInfo cmpType, TypeInfo boundType) {
+        if (cmpType.getCategory() != ObjectInspector.Category.PRIMITIVE ||
+            boundType.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            return false;
+        }
+
+        PrimitiveObjectInspector.PrimitiveCategory cmp =
+                ((PrimitiveTypeInfo) cmpType).getPrimitiveCategory();
+        PrimitiveObjectInspector.PrimitiveCategory bound =
+                ((PrimitiveTypeInfo) boundType).getPrimitiveCategory();
+        if (cmp == bound) {
+            return true;
+        }
+        if (cmp == PrimitiveObjectInspector.PrimitiveCategory.TIMESTAMP) {
+            return bound == PrimitiveObjectInspector.PrimitiveCategory.STRING;
+        }
+        return isNumber(cmp) && isNumber(bound);
+    }
+
+    private static boolean isNumber(PrimitiveObjectInspector.PrimitiveCategory category) {
+        switch (category) {
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return
+     *          true if the parameters of first() end with cmp_col_bound1
+     */
+    static boolean hasBound(int len) {
+        return len >= 4 && len % 2 == 0;
+    }
 
-        return new GenericUDAFFirstOrderedByEvaluator();
+    /**
+     * @return
+     *          ObjectInspectors for the parameters of first() without cmp_col_bound1
+     */
+    static ObjectInspector[] withoutBound(ObjectInspector[] ois) {
+        return hasBound(ois.length) ? Arrays.copyOf(ois, ois.length - 1) : ois;
+    }
+
+    /**
+     * Check that cmp_col_orders are constant ASC or DESC.
+     *
+     * @param ois
+     *          ObjectInspectors for UDAF parameters
+     * @param offset
+     *          index of val_col
+     */
+    static void checkInputOIs(ObjectInspector[] ois, int offset) throws HiveException {
+        int len = ois.length;
+
+        // ois for cmp_col_orders
+        for (int i = offset + 2; i < len; i += 2) {
+            ObjectInspector oi = ois[i];
+            if (! (oi instanceof ConstantObjectInspector)) {
+                throw new UDFArgumentTypeException(i, "A cmp_col_order must be constant");
+            }
+
+            Text orderText = (Text) ((ConstantObjectInspector) oi).getWritableConstantValue();
+            String order = orderText.toString();
+
+            if (!order.equalsIgnoreCase(ASC_ORDER) && !order.equalsIgnoreCase(DESC_ORDER)) {
+                throw new UDFArgumentTypeException(i, order + " is invalid for cmp_col_order");
+            }
+        }
+    }
+
+    /**
+     * @return
+     *          upper-cased constant cmp_col_orders
+     */
+    static String[] selectConstantOrders(ObjectInspector[] ois, int offset) {
+        String[] ret = new String[(ois.length - offset - 1) / 2];
+        int len = ret.length;
+
+        for (int i = 0; i < len; i++) {
+            ConstantObjectInspector coi = (ConstantObjectInspector) ois[offset + (i + 1) * 2];
+            ret[i] = coi.getWritableConstantValue().toString().toUpperCase();
+        }
+        return ret;
+    }
+
+    /**
+     * @return
+     *          true if index points a cmp_col_order in the layout of UDAF parameters, which starts with val_col
+     */
+    static boolean isOrderColumn(int index) {
+        return index > 0 && index % 2 == 0;
+    }
+
+    /**
+     * @return
+     *          true if val_col of oi is buffered as LazyBinary bytes.
+     *          copying a map, a list or a union to a standard object builds a whole object graph for each winner.
+     */
+    static boolean isSerializedValue(ObjectInspector oi) {
+        switch (oi.getCategory()) {
+            case MAP:
+            case LIST:
+            case UNION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean getBooleanConf(String name, boolean defaultValue) {
+        SessionState ss = SessionState.get();
+        if (ss == null || ss.getConf() == null) {
+            return defaultValue;
+        }
+        return ss.getConf().getBoolean(name, defaultValue);
+    }
+
+    static int getIntConf(String name, int defaultValue) {
+        SessionState ss = SessionState.get();
+        if (ss == null || ss.getConf() == null) {
+            return defaultValue;
+        }
+        return ss.getConf().getInt(name, defaultValue);
     }
 
     @UDFType(distinctLike=true)
     public static class GenericUDAFFirstOrderedByEvaluator extends GenericUDAFEvaluator {
+        // ObjectInspectors in the layout of UDAF parameters.
+        // in PARTIAL2 and FINAL, cmp_cols come from the decoded partial, and cmp_col_orders are null.
         private ObjectInspector[] inputOIs;
-        private StandardStructObjectInspector partialOI;
+        private StructObjectInspector partialOI;
         private ObjectInspector outputOI;
 
-        // converted inputOIs to StnadardObjectInspectors. used in AggregationBuffer.
+        // ObjectInspectors for objects buffered in AggregationBuffers.
         private ObjectInspector[] standardInputOIs;
 
+        // copy inputs into the holders of AggregationBuffers. shared by all buffers, in the layout of UDAF parameters.
+        // with normalized keys in PARTIAL2 and FINAL, only val_col is buffered, and it is copied by valueSlot.
+        private ValueSlot[] slots;
+        private ValueSlot valueSlot;
+        // serializes val_col into the bytes of AggregationBuffers instead of valueSlot. see isSerializedValue().
+        private CmpColumnsCodec.ColumnSerDe valueSerDe;
+
+        // upper-cased cmp_col_orders
+        // taken from the constants in PARTIAL1 and COMPLETE, and from cmp_types in PARTIAL2 and FINAL,
+        // or from the first partial without cmp_types
+        private String[] orders;
+
+        // comparators for cmp_cols, ASC/DESC is folded in.
+        // built in init(), or on the first merge() for partials without cmp_types,
+        // because cmp_col_orders are only available in their encoded cmp_cols.
+        // volatile, because it is written last by initMergeState(), which may run on any merging thread.
+        private volatile ColumnComparator[] comparators;
+        // compare buffered cmp_cols with each other in mergeAll(). built with comparators in PARTIAL2 and FINAL.
+        private ColumnComparator[] bufferComparators;
+
+        // compare cmp_cols as normalized keys instead of ColumnComparators.
+        // a bean property, so that it is kept through the serialization of query plans.
+        private boolean normalizedKeys = false;
+        // built in init() for PARTIAL1 and COMPLETE. not needed in PARTIAL2 and FINAL,
+        // where partials already carry keys.
+        private SortKeyEncoder keyEncoder;
+
+        // trust that rows of each group come in the order of cmp_cols in iterate().
+        // the first row of a group is buffered, and later rows are skipped without comparison.
+        // partials from different tasks are not ordered, so merge() always compares.
+        private boolean presorted = false;
+        // compare every n-th skipped row, and fail if it should have won. 0 disables the check.
+        private int presortedCheckInterval = 0;
+        // only counted by iterate(), which is never called by mergeAll()
+        private long presortedSkippedRows;
+
+        // the best possible values of cmp_cols, in the writables of boundOIs. null elements are null values.
+        // a buffer holding all of them can not be replaced, because later rows are at best tied.
+        // built in init() for PARTIAL1 and COMPLETE, and null when any cmp_col has no bound.
+        // in PARTIAL2 and FINAL, partials tell whether they are at bounds.
+        private Object[] bounds;
+        private ObjectInspector[] boundOIs;
+
+        // for partial results. a partial is a struct of val_col, cmp_cols encoded by CmpColumnsCodec,
+        // at_bound and cmp_types. encodes cmp_cols in PARTIAL1 and PARTIAL2.
+        private CmpColumnsCodec codec;
+        private StructField valueField;
+        private StructField cmpColumnsField;
+        private BinaryObjectInspector cmpColumnsOI;
+        // null for partials without the at_bound field, such as the ones made by first_ordered_by_merge()
+        private StructField atBoundField;
+        private BooleanObjectInspector atBoundOI;
+        // null for partials without the cmp_types field, whose cmp_cols start with their schema
+        private StructObjectInspector cmpTypesOI;
+        // ObjectInspector for val_col buffered in PARTIAL2 and FINAL
+        private ObjectInspector bufferedValueOI;
+        private Object[] partialResult;
+        private BytesWritable partialCmpColumns;
+        private BooleanWritable partialAtBound;
+
+        // buffers written by merge(). renewed by init() for PARTIAL2 and FINAL.
+        // each MergeTask of mergeAll() has its own, so that tasks can merge on different threads at the same time.
+        private MergeScratch mergeScratch;
+
+        // counts are plain fields. MergeTasks count into their own metrics, which are added after they are joined.
+        private final FirstOrderedByMetrics metrics = new FirstOrderedByMetrics();
+
+        /**
+         * Buffers and counts of a merging thread.
+         */
+        static class MergeScratch {
+            // null with normalized keys, where cmp_cols are never decoded
+            final CmpColumnsCodec codec;
+            // null unless the evaluator has valueSerDe
+            final CmpColumnsCodec.ColumnSerDe valueSerDe;
+            final FirstOrderedByMetrics metrics;
+            Object[] partialObjects;
+
+            MergeScratch(CmpColumnsCodec codec, CmpColumnsCodec.ColumnSerDe valueSerDe, FirstOrderedByMetrics metrics) {
+                this.codec = codec;
+                this.valueSerDe = valueSerDe;
+                this.metrics = metrics;
+            }
+        }
+
+        /**
+         * @param metrics
+         *          metrics to count merges into
+         */
+        private MergeScratch newMergeScratch(FirstOrderedByMetrics metrics) throws HiveException {
+            return new MergeScratch(normalizedKeys ? null : newPartialCodec(),
+                    valueSerDe == null ? null : new CmpColumnsCodec.ColumnSerDe(valueSerDe.typeName), metrics);
+        }
+
+        public boolean isNormalizedKeys() {
+            return normalizedKeys;
+        }
+
+        public void setNormalizedKeys(boolean normalizedKeys) {
+            this.normalizedKeys = normalizedKeys;
+        }
+
+        public boolean isPresorted() {
+            return presorted;
+        }
+
+        public void setPresorted(boolean presorted) {
+            this.presorted = presorted;
+        }
+
+        public int getPresortedCheckInterval() {
+            return presortedCheckInterval;
+        }
+
+        public void setPresortedCheckInterval(int presortedCheckInterval) {
+            this.presortedCheckInterval = presortedCheckInterval;
+        }
+
         @Override
         public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
             super.init(mode, parameters);
@@ -79,102 +401,288 @@ public class FirstOrderedBy extends AbstractGenericUDAFResolver {
             LOG.info("mode: " + mode);
             switch (mode) {
                 case PARTIAL1:
-                    inputOIs = parameters;
-                    checkInputOIs(inputOIs);
+                    inputOIs = withoutBound(parameters);
+                    checkInputOIs(inputOIs, 0);
+                    initValueSerDe(inputOIs[0]);
                     standardInputOIs= makeStandardInputOI(inputOIs);
-                    partialOI = makePartialOI(standardInputOIs);
-                    return partialOI;
+                    initSlots(inputOIs);
+                    orders = selectConstantOrders(inputOIs, 0);
+                    comparators = ColumnComparator.create(standardInputOIs, inputOIs, orders);
+                    keyEncoder = normalizedKeys ? new SortKeyEncoder(inputOIs, orders) : null;
+                    initBounds(parameters);
+                    codec = new CmpColumnsCodec(false);
+                    return makePartialOI(standardInputOIs[0],
+                            CmpColumnsCodec.makeSchemaObjectInspector(standardInputOIs, orders));
                 case PARTIAL2:
-                    partialOI = (StandardStructObjectInspector) parameters[0];
-                    inputOIs = makeInputOI(partialOI);
-                    standardInputOIs= makeStandardInputOI(inputOIs);
-                    return partialOI;
+                    initPartialInput((StructObjectInspector) parameters[0]);
+                    // partials without cmp_types are passed on with inline schemas
+                    codec = new CmpColumnsCodec(cmpTypesOI == null);
+                    return makePartialOI(getValueObjectInspector(valueField.getFieldObjectInspector()), cmpTypesOI);
                 case FINAL:
-                    partialOI = (StandardStructObjectInspector) parameters[0];
-                    outputOI = partialOI.getStructFieldRef(VALUE_COLUMN).getFieldObjectInspector();
-                    inputOIs = makeInputOI(partialOI);
-                    standardInputOIs= makeStandardInputOI(inputOIs);
+                    initPartialInput((StructObjectInspector) parameters[0]);
+                    outputOI = getValueObjectInspector(valueField.getFieldObjectInspector());
                     return outputOI;
                 case COMPLETE:
-                    inputOIs = parameters;
-                    outputOI = parameters[0];
-                    checkInputOIs(inputOIs);
+                    inputOIs = withoutBound(parameters);
+                    checkInputOIs(inputOIs, 0);
+                    initValueSerDe(inputOIs[0]);
                     standardInputOIs= makeStandardInputOI(inputOIs);
+                    initSlots(inputOIs);
+                    outputOI = standardInputOIs[0];
+                    orders = selectConstantOrders(inputOIs, 0);
+                    comparators = ColumnComparator.create(standardInputOIs, inputOIs, orders);
+                    keyEncoder = normalizedKeys ? new SortKeyEncoder(inputOIs, orders) : null;
+                    initBounds(parameters);
                     return outputOI;
                 default:
                     throw new RuntimeException("Unknown aggregation mode: "+ mode);
             }
         }
 
-        private StandardStructObjectInspector makePartialOI(ObjectInspector[] parameters) {
-            int len = parameters.length;
-            List<String> fieldNames = new ArrayList<String>(len);
+        /**
+         * @param cmpTypesOI
+         *          ObjectInspector for cmp_types, or null to leave the field out
+         */
+        private StandardStructObjectInspector makePartialOI(ObjectInspector valueOI, ObjectInspector cmpTypesOI) {
+            List<String> fieldNames = new ArrayList<String>(4);
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(4);
 
             fieldNames.add(VALUE_COLUMN);
-            for (int i = 1; i < len; i += 2) {
-                fieldNames.add(COMPARED_COLUMN + i);
-                fieldNames.add(COMPARED_COLUMN_ORDER + (i + 1));
+            fieldOIs.add(valueOI);
+            fieldNames.add(COMPARED_COLUMNS);
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+            fieldNames.add(AT_BOUND);
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableBooleanObjectInspector);
+            if (cmpTypesOI != null) {
+                fieldNames.add(COMPARED_TYPES);
+                fieldOIs.add(cmpTypesOI);
             }
 
-            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, Arrays.asList(parameters));
+            // cmp_types is left null
+            partialResult = new Object[fieldNames.size()];
+            partialCmpColumns = new BytesWritable();
+            partialAtBound = new BooleanWritable();
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
         }
 
-        private ObjectInspector[] makeInputOI(StandardStructObjectInspector soi) {
-            List<StructField> fields = (List<StructField>) soi.getAllStructFieldRefs();
-            int len = fields.size();
-            ObjectInspector[] ois = new ObjectInspector[len];
+        private void initPartialInput(StructObjectInspector soi) throws HiveException {
+            partialOI = soi;
+            valueField = soi.getStructFieldRef(VALUE_COLUMN);
+            cmpColumnsField = soi.getStructFieldRef(COMPARED_COLUMNS);
+            cmpColumnsOI = (BinaryObjectInspector) cmpColumnsField.getFieldObjectInspector();
+            atBoundField = null;
+            cmpTypesOI = null;
+            for (StructField field : soi.getAllStructFieldRefs()) {
+                if (field.getFieldName().equalsIgnoreCase(AT_BOUND)) {
+                    atBoundField = field;
+                } else if (field.getFieldName().equalsIgnoreCase(COMPARED_TYPES)) {
+                    cmpTypesOI = (StructObjectInspector) field.getFieldObjectInspector();
+                }
+            }
+            atBoundOI = atBoundField == null ? null : (BooleanObjectInspector) atBoundField.getFieldObjectInspector();
+            initValueSerDe(valueField.getFieldObjectInspector());
+            bufferedValueOI = getValueObjectInspector(valueField.getFieldObjectInspector());
 
-            for (int i = 0; i < len; i++) {
-                ois[i] = fields.get(i).getFieldObjectInspector();
+            // the rest is built from cmp_types, or from the first partial without it
+            inputOIs = null;
+            standardInputOIs = null;
+            slots = null;
+            valueSlot = valueSerDe == null ? ValueSlot.create(valueField.getFieldObjectInspector()) : null;
+            orders = null;
+            comparators = null;
+            bufferComparators = null;
+            keyEncoder = null;
+            bounds = null;
+            boundOIs = null;
+
+            // with normalized keys, cmp_cols are never decoded
+            if (cmpTypesOI != null && !normalizedKeys) {
+                initMergeState(newPartialCodec());
             }
+            mergeScratch = newMergeScratch(metrics);
+        }
 
-            return ois;
+        /**
+         * @return
+         *          a codec to decode cmp_cols of input partials, which carry their schema inline without cmp_types
+         */
+        private CmpColumnsCodec newPartialCodec() throws HiveException {
+            if (cmpTypesOI == null) {
+                return new CmpColumnsCodec(true);
+            }
+            CmpColumnsCodec partialCodec = new CmpColumnsCodec(false);
+            partialCodec.setSchema(cmpTypesOI);
+            return partialCodec;
         }
 
-        private ObjectInspector[] makeStandardInputOI(ObjectInspector[] ois) {
-            int len = ois.length;
-            ObjectInspector[] sois = new ObjectInspector[len];
-            for (int i = 0; i < len; i++) {
-                sois[i] = ObjectInspectorUtils.getStandardObjectInspector(ois[i]);
+        /**
+         * Build states which depend on cmp_cols from the schema of partials.
+         * Synchronized, because merge() may be called from several threads.
+         *
+         * @param decoded
+         *          a codec with the schema of partials
+         */
+        private synchronized void initMergeState(CmpColumnsCodec decoded) {
+            if (comparators != null) {
+                return;
             }
+
+            inputOIs = decoded.getRowObjectInspectors(valueField.getFieldObjectInspector());
+            standardInputOIs = makeStandardInputOI(inputOIs);
+            initSlots(inputOIs);
+            orders = decoded.getOrders();
+
+            bufferComparators = ColumnComparator.create(standardInputOIs, standardInputOIs, orders);
+            // published last
+            comparators = ColumnComparator.create(standardInputOIs, inputOIs, orders);
+        }
+
+        private ObjectInspector[] makeStandardInputOI(ObjectInspector[] ois) {
+            ObjectInspector[] sois = ValueSlot.getObjectInspectors(ois);
+            sois[0] = getValueObjectInspector(ois[0]);
             return sois;
         }
 
-        private void checkInputOIs(ObjectInspector[] ois) throws HiveException {
-            int len = ois.length;
+        private void initValueSerDe(ObjectInspector valueOI) throws HiveException {
+            valueSerDe = isSerializedValue(valueOI) ? new CmpColumnsCodec.ColumnSerDe(valueOI.getTypeName()) : null;
+        }
+
+        /**
+         * ObjectInspector for val_col returned by terminatePartial() and terminate(). call after initValueSerDe().
+         */
+        private ObjectInspector getValueObjectInspector(ObjectInspector valueOI) {
+            return valueSerDe == null ? ValueSlot.getObjectInspector(valueOI) : valueSerDe.fieldOI;
+        }
+
+        private void initSlots(ObjectInspector[] ois) {
+            slots = ValueSlot.create(ois);
+            if (valueSerDe != null) {
+                // val_col is serialized by valueSerDe
+                slots[0] = null;
+            }
+            valueSlot = slots[0];
+        }
 
-            // ois for cmp_col_orders
-            for (int i = 2; i < len; i += 2) {
-                ObjectInspector oi = ois[i];
-                if (! (oi instanceof ConstantObjectInspector)) {
-                    throw new UDFArgumentTypeException(i, "A cmp_col_order must be constant");
+        /**
+         * Build bounds of cmp_cols. cmp_col1 is bounded by cmp_col_bound1 when it is given.
+         * Otherwise, nulls are the smallest for ASC, and the maximums of booleans and integers are used for DESC.
+         * Without cmp_col_bound1, bounds are null when a cmp_col has none. With it, that is an error,
+         * because the bound could never take effect.
+         *
+         * @param parameters
+         *          ObjectInspectors for UDAF parameters, which may end with cmp_col_bound1
+         */
+        private void initBounds(ObjectInspector[] parameters) throws HiveException {
+            int len = orders.length;
+            bounds = new Object[len];
+            boundOIs = new ObjectInspector[len];
+
+            for (int i = 0; i < len; i++) {
+                int index = i * 2 + 1;
+                if (i == 0 && hasBound(parameters.length)) {
+                    ObjectInspector oi = parameters[parameters.length - 1];
+                    if (!(oi instanceof ConstantObjectInspector)) {
+                        throw new UDFArgumentTypeException(parameters.length - 1,
+                                "cmp_col_bound1 must be constant. Is a cmp_col_order missing?");
+                    }
+                    Object constant = ((ConstantObjectInspector) oi).getWritableConstantValue();
+                    boundOIs[i] = standardInputOIs[index];
+                    bounds[i] = constant == null ? null :
+                            ObjectInspectorConverters.getConverter(oi, boundOIs[i]).convert(constant);
+                } else if (ASC_ORDER.equals(orders[i])) {
+                    bounds[i] = null;
+                } else {
+                    bounds[i] = maxValue(inputOIs[index]);
+                    if (bounds[i] == null) {
+                        if (hasBound(parameters.length)) {
+                            throw new UDFArgumentTypeException(index, "cmp_col_bound1 cannot take effect, because " +
+                                    inputOIs[index].getTypeName() + " has no bound for DESC. " +
+                                    "Only boolean and integer cmp_cols can follow cmp_col1 in DESC order");
+                        }
+                        // no bound for the type
+                        bounds = null;
+                        boundOIs = null;
+                        return;
+                    }
+                    boundOIs[i] = standardInputOIs[index];
                 }
+            }
+        }
 
-                Text orderText = (Text) ((ConstantObjectInspector) oi).getWritableConstantValue();
-                String order = orderText.toString();
+        /**
+         * @return
+         *          the maximum of oi in its writable, or null if oi is not a boolean or an integer
+         */
+        private static Object maxValue(ObjectInspector oi) {
+            if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+                return null;
+            }
 
-                if (!order.equalsIgnoreCase(ASC_ORDER) && !order.equalsIgnoreCase(DESC_ORDER)) {
-                    throw new UDFArgumentTypeException(i, order + " is invalid for cmp_col_order");
+            switch (((PrimitiveObjectInspector) oi).getPrimitiveCategory()) {
+                case BOOLEAN:
+                    return new BooleanWritable(true);
+                case BYTE:
+                    return new ByteWritable(Byte.MAX_VALUE);
+                case SHORT:
+                    return new ShortWritable(Short.MAX_VALUE);
+                case INT:
+                    return new IntWritable(Integer.MAX_VALUE);
+                case LONG:
+                    return new LongWritable(Long.MAX_VALUE);
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @return
+         *          true if all cmp_cols of parameters are at their bounds. call only when bounds is not null.
+         */
+        private boolean isAtBound(Object[] parameters) {
+            int len = bounds.length;
+            for (int i = 0; i < len; i++) {
+                int index = i * 2 + 1;
+                Object o = parameters[index];
+                if (bounds[i] == null) {
+                    if (o != null) {
+                        return false;
+                    }
+                } else if (o == null || ObjectInspectorUtils.compare(o, inputOIs[index], bounds[i], boundOIs[i]) != 0) {
+                    return false;
                 }
             }
+            return true;
         }
 
+        /**
+         * Buffers the winning row of a group.
+         *
+         * Per-group state is kept to the winning values. ObjectInspectors, cmp_col_orders and ValueSlots are shared
+         * by the evaluator, and primitive values are held in writables, which are overwritten by later winners.
+         */
         static class FirstAgg implements AggregationBuffer {
-            // whole parameters
+            // val_col and cmp_cols in the layout of UDAF parameters. elements are holders written by ValueSlots,
+            // and null for null values. elements for cmp_col_orders are always null.
             Object[] objects;
-            // Objectinspectors for objects;
-            ObjectInspector[] ois;
-            // cmp_col_orders
-            String[] orders;
+            // true until the first row is buffered
+            boolean empty;
+            // true when cmp_cols are at the bounds of the evaluator, so that no later row can replace them
+            boolean atBound;
+            // normalized key of cmp_cols. only used with normalized keys, where objects only holds val_col.
+            BytesWritable key;
+            // val_col serialized by LazyBinarySerDe, when the evaluator has valueSerDe. objects[0] is null then.
+            // the array grows and is reused for later winners.
+            byte[] valueBytes;
+            int valueLength;
 
             FirstAgg() {
                 init();
             }
 
             public void init() {
-                objects = null;
-                orders = null;
-                ois = null;
+                // objects and key are kept, so that a reset buffer reuses their holders
+                empty = true;
+                atBound = false;
             }
 
             /**
@@ -182,42 +690,70 @@ public class FirstOrderedBy extends AbstractGenericUDAFResolver {
              *
              * @param parameters
              *          UDAF parameters
-             * @param paramOIs
-             *          ObjectInspectors for parameters
+             * @param comparators
+             *          ColumnComparators for cmp_cols, built by the evaluator
              * @return
              *          When the buffered objects comes first by specified order, return > 0.
              *          When the buffered objects and parameter objects have same order, return 0.
              *          When parameter objects comes first by specified order, return < 0.
              */
-            public int compareTo(Object[] parameters, ObjectInspector[] paramOIs) {
-                assert (objects.length == parameters.length);
-                assert (objects.length == paramOIs.length);
+            public int compareTo(Object[] parameters, ColumnComparator[] comparators) {
+                // parameters of iterate() may end with cmp_col_bound1
+                assert (objects.length <= parameters.length);
 
-                int len = objects.length;
+                int len = comparators.length;
 
-                // skip val_col
-                for (int i = 1; i < len; i += 2) {
-                    Object obj = objects[i];
-                    ObjectInspector oi = ois[i];
+                for (int i = 0; i < len; i++) {
+                    // skip val_col
+                    int index = i * 2 + 1;
+                    int cmp = comparators[i].compare(objects[index], parameters[index]);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return 0;
+            }
 
-                    Object param = parameters[i];
-                    ObjectInspector poi = paramOIs[i];
+            /**
+             * Copy val_col and cmp_cols into the holders of this buffer.
+             * Holders are allocated only for the first non-null value of each column, and reused for later winners.
+             *
+             * @param parameters
+             *          objects in the layout of UDAF parameters. trailing objects without ValueSlots are ignored.
+             * @param paramOIs
+             *          ObjectInspectors for parameters
+             * @param slots
+             *          ValueSlots in the layout of UDAF parameters, shared by the evaluator
+             */
+            void copy(Object[] parameters, ObjectInspector[] paramOIs, ValueSlot[] slots) {
+                int len = slots.length;
 
-                    String order = orders[(i - 1) / 2];
+                if (objects == null) {
+                    objects = new Object[len];
+                }
 
-                    int cmp = ObjectInspectorUtils.compare(obj, oi, param, poi);
-                    LOG.info("order: " + order + ", obj: " + obj + ", param: " + param + ", cmp :" + cmp);
-                    if (cmp != 0) {
-                        if (order.equals(ASC_ORDER)) {
-                            return -cmp;
-                        } else if (order.equals(DESC_ORDER)) {
-                            return cmp;
-                        } else {
-                            throw new RuntimeException("Unexpected order string: " + order);
-                        }
+                for (int i = 0; i < len; i++) {
+                    if (slots[i] != null) {
+                        objects[i] = slots[i].set(objects[i], parameters[i], paramOIs[i]);
                     }
                 }
-                return 0;
+                empty = false;
+            }
+
+            void setValueBytes(byte[] bytes, int len) {
+                if (valueBytes == null || valueBytes.length < len) {
+                    valueBytes = new byte[Math.max(len, valueBytes == null ? 0 : valueBytes.length * 2)];
+                }
+                System.arraycopy(bytes, 0, valueBytes, 0, len);
+                valueLength = len;
+            }
+
+            /**
+             * Compare with a normalized key. The return value is the same as compareTo(Object[], ColumnComparator[]).
+             */
+            public int compareTo(BytesWritable paramKey) {
+                // a smaller key comes first
+                return -key.compareTo(paramKey);
             }
         }
 
@@ -234,74 +770,433 @@ public class FirstOrderedBy extends AbstractGenericUDAFResolver {
 
         @Override
         public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
-            LOG.info("method: iterate");
-            aggregate(agg, parameters, inputOIs);
+            metrics.incrRowsIterated();
+            FirstAgg fagg = (FirstAgg) agg;
+            if (fagg.atBound) {
+                metrics.incrRowsSkippedAtBound();
+                return;
+            }
+
+            boolean replaced;
+            if (presorted && !fagg.empty) {
+                skipPresorted(fagg, parameters);
+                replaced = false;
+            } else if (normalizedKeys) {
+                replaced = aggregateKey(agg, keyEncoder.encode(parameters), parameters[0], inputOIs[0], valueSerDe,
+                        metrics);
+            } else {
+                replaced = aggregate(agg, parameters, inputOIs, valueSerDe, metrics);
+            }
+
+            if (replaced && bounds != null) {
+                fagg.atBound = isAtBound(parameters);
+            }
+        }
+
+        /**
+         * Skip a row of presorted input. Every presortedCheckInterval-th row is compared with the buffered one.
+         */
+        private void skipPresorted(FirstAgg fagg, Object[] parameters) throws HiveException {
+            if (presortedCheckInterval <= 0 || ++presortedSkippedRows % presortedCheckInterval != 0) {
+                return;
+            }
+
+            int cmp = normalizedKeys ?
+                    fagg.compareTo(keyEncoder.encode(parameters)) : fagg.compareTo(parameters, comparators);
+            if (cmp < 0) {
+                throw new HiveException("Input is not sorted by cmp_cols, although " + PRESORTED_CONF +
+                        " is true. Disable it, or sort the input by cmp_cols in each group");
+            }
         }
 
         @Override
         public Object terminatePartial(AggregationBuffer agg) throws HiveException {
-            LOG.info("method: terminatePartial");
-            return ((FirstAgg) agg).objects;
+            metrics.maybePublish();
+            FirstAgg fagg = (FirstAgg) agg;
+            if (fagg.empty) {
+                return null;
+            }
+
+            partialResult[0] = getValue(fagg);
+            if (normalizedKeys) {
+                partialResult[1] = fagg.key;
+            } else {
+                codec.encode(fagg.objects, standardInputOIs, orders, partialCmpColumns);
+                partialResult[1] = partialCmpColumns;
+            }
+            partialAtBound.set(fagg.atBound);
+            partialResult[2] = partialAtBound;
+            return partialResult;
         }
 
         @Override
         public void merge(AggregationBuffer agg, Object partial) throws HiveException {
-            LOG.info("method: merge");
-            Object[] partialObjects = partialOI.getStructFieldsDataAsList(partial).toArray();
-            aggregate(agg, partialObjects, inputOIs);
+            merge(agg, partial, mergeScratch);
+        }
+
+        /**
+         * @param scratch
+         *          buffers and metrics of the merging thread
+         */
+        private void merge(AggregationBuffer agg, Object partial, MergeScratch scratch) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            scratch.metrics.incrMerges();
+
+            FirstAgg fagg = (FirstAgg) agg;
+            if (fagg.atBound) {
+                // no partial can come before the buffered one, and ties keep it
+                return;
+            }
+            // a partial at bounds comes before any buffer which is not, so it is taken without comparison
+            boolean atBound = isPartialAtBound(partial);
+
+            BytesWritable cmpColumns =
+                    cmpColumnsOI.getPrimitiveWritableObject(partialOI.getStructFieldData(partial, cmpColumnsField));
+            if (normalizedKeys) {
+                // keys are compared as they are, so cmp_cols are never decoded
+                Object value = partialOI.getStructFieldData(partial, valueField);
+                if (atBound) {
+                    copyKeyAndValue(fagg, cmpColumns, value, valueField.getFieldObjectInspector(), scratch.valueSerDe,
+                            scratch.metrics);
+                    fagg.empty = false;
+                    fagg.atBound = true;
+                } else {
+                    aggregateKey(agg, cmpColumns, value, valueField.getFieldObjectInspector(), scratch.valueSerDe,
+                            scratch.metrics);
+                }
+                return;
+            }
+
+            scratch.codec.decode(cmpColumns.getBytes(), 0, cmpColumns.getLength());
+
+            if (comparators == null) {
+                initMergeState(scratch.codec);
+            }
+            if (scratch.partialObjects == null) {
+                scratch.partialObjects = new Object[inputOIs.length];
+            }
+
+            Object[] values = scratch.codec.getValues();
+            Object[] partialObjects = scratch.partialObjects;
+            partialObjects[0] = partialOI.getStructFieldData(partial, valueField);
+            for (int i = 0; i < values.length; i++) {
+                partialObjects[i * 2 + 1] = values[i];
+            }
+            if (atBound) {
+                copyObjects(fagg, partialObjects, inputOIs, scratch.valueSerDe, scratch.metrics);
+                fagg.atBound = true;
+            } else {
+                aggregate(agg, partialObjects, inputOIs, scratch.valueSerDe, scratch.metrics);
+            }
+        }
+
+        /**
+         * @return
+         *          true if the at_bound field of partial is true
+         */
+        private boolean isPartialAtBound(Object partial) {
+            if (atBoundField == null) {
+                return false;
+            }
+            Object flag = partialOI.getStructFieldData(partial, atBoundField);
+            return flag != null && atBoundOI.get(flag);
+        }
+
+        /**
+         * Merge partials into agg in parallel. The result is the same as calling merge() for each partial in order.
+         *
+         * Partials are split into ranges of MERGE_BATCH_SIZE, which are merged into buffers of their own,
+         * and the buffers are merged pairwise up a tree. A buffer of earlier partials is only replaced by
+         * a strictly better one, so ties are kept by the earliest partial as sequential merge() does.
+         * Each task counts into metrics of its own, which are added to the evaluator's after the tasks are joined.
+         * Only available in PARTIAL2 and FINAL.
+         *
+         * @param partials
+         *          partials to be read from the threads of pool. they must not be reused during the call.
+         * @param pool
+         *          ForkJoinPool to merge on
+         */
+        public void mergeAll(AggregationBuffer agg, List<?> partials, ForkJoinPool pool) throws HiveException {
+            if (partialOI == null) {
+                throw new HiveException("mergeAll is only available in PARTIAL2 and FINAL");
+            }
+            if (partials.isEmpty()) {
+                return;
+            }
+
+            MergeTask task = new MergeTask(partials, 0, partials.size());
+            FirstAgg merged;
+            try {
+                merged = pool.invoke(task);
+            } catch (RuntimeException e) {
+                // ForkJoinPool may rethrow a copy of the exception, so look for the cause
+                for (Throwable t = e; t != null; t = t.getCause()) {
+                    if (t instanceof HiveException) {
+                        throw (HiveException) t;
+                    }
+                }
+                throw e;
+            }
+            metrics.add(task.metrics);
+            mergeBuffer((FirstAgg) agg, merged, metrics);
+        }
+
+        static final int MERGE_BATCH_SIZE = 64;
+
+        private class MergeTask extends RecursiveTask<FirstAgg> {
+            private final List<?> partials;
+            private final int start;
+            private final int end;
+            // counts of this task and its subtasks, read after join()
+            final FirstOrderedByMetrics metrics = new FirstOrderedByMetrics();
+
+            MergeTask(List<?> partials, int start, int end) {
+                this.partials = partials;
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected FirstAgg compute() {
+                try {
+                    if (end - start <= MERGE_BATCH_SIZE) {
+                        MergeScratch scratch = newMergeScratch(metrics);
+                        FirstAgg agg = new FirstAgg();
+                        for (int i = start; i < end; i++) {
+                            merge(agg, partials.get(i), scratch);
+                        }
+                        return agg;
+                    }
+
+                    int mid = (start + end) >>> 1;
+                    MergeTask left = new MergeTask(partials, start, mid);
+                    left.fork();
+                    MergeTask right = new MergeTask(partials, mid, end);
+                    FirstAgg rightAgg = right.compute();
+                    FirstAgg merged = left.join();
+                    metrics.add(left.metrics);
+                    metrics.add(right.metrics);
+                    mergeBuffer(merged, rightAgg, metrics);
+                    return merged;
+                } catch (HiveException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        /**
+         * Merge a buffer of later partials into a buffer of earlier ones.
+         *
+         * @param metrics
+         *          the evaluator's metrics, or the ones of a MergeTask
+         */
+        private void mergeBuffer(FirstAgg into, FirstAgg from, FirstOrderedByMetrics metrics) throws HiveException {
+            if (from.empty || into.atBound) {
+                return;
+            }
+
+            if (!into.empty && !from.atBound) {
+                int cmp = normalizedKeys ? into.compareTo(from.key) : into.compareTo(from.objects, bufferComparators);
+                if (cmp >= 0) {
+                    return;
+                }
+                metrics.incrBufferReplacements();
+            }
+
+            if (normalizedKeys) {
+                if (into.objects == null) {
+                    into.objects = new Object[1];
+                    into.key = new BytesWritable();
+                }
+                into.key.set(from.key.getBytes(), 0, from.key.getLength());
+                if (valueSerDe == null) {
+                    into.objects[0] = valueSlot.set(into.objects[0], from.objects[0], bufferedValueOI);
+                }
+            } else {
+                into.copy(from.objects, standardInputOIs, slots);
+            }
+
+            if (valueSerDe != null) {
+                into.setValueBytes(from.valueBytes, from.valueLength);
+            }
+            into.empty = false;
+            into.atBound = from.atBound;
         }
 
         @Override
         public Object terminate(AggregationBuffer agg) throws HiveException {
-            LOG.info("method: terminate");
-            return ((FirstAgg) agg).objects[0];
+            metrics.maybePublish();
+            FirstAgg fagg = (FirstAgg) agg;
+            return fagg.empty ? null : getValue(fagg);
         }
 
-        private void aggregate(AggregationBuffer agg, Object[] objects, ObjectInspector[] ois) throws UDFArgumentException {
+        /**
+         * Publish the remaining counts.
+         * This overrides GenericUDAFEvaluator.close() on Hive 0.11 or later, and is not called on Hive 0.10.
+         */
+        public void close() throws IOException {
+            metrics.publish();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(metrics);
+            }
+        }
+
+        public FirstOrderedByMetrics getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * Create an evaluator for the sliding frame ROWS BETWEEN numPreceding PRECEDING AND numFollowing FOLLOWING.
+         * Hive 0.12 or later calls getWindowingEvaluator(WindowFrameDef), which should delegate to this.
+         *
+         * @param numPreceding
+         *          number of preceding rows. FirstOrderedByStreamingEvaluator.UNBOUNDED for UNBOUNDED PRECEDING
+         * @param numFollowing
+         *          number of following rows
+         */
+        public GenericUDAFEvaluator getWindowingEvaluator(int numPreceding, int numFollowing) {
+            return new FirstOrderedByStreamingEvaluator(numPreceding, numFollowing);
+        }
+
+        /**
+         * @param serDe
+         *          serializes val_col when valueSerDe is used. it must not be shared by threads.
+         * @param metrics
+         *          the evaluator's metrics, or the ones of a MergeTask
+         * @return
+         *          true if objects are copied into agg
+         */
+        private boolean aggregate(AggregationBuffer agg, Object[] objects, ObjectInspector[] ois,
+                                  CmpColumnsCodec.ColumnSerDe serDe, FirstOrderedByMetrics metrics)
+                throws HiveException {
             FirstAgg fagg = (FirstAgg) agg;
 
-            if (fagg.orders == null) {
-                fagg.orders = selectOrders(objects, ois);
+            if (fagg.empty){
+                copyObjects(fagg, objects, ois, serDe, metrics);
+                return true;
             }
 
-            if (fagg.ois == null) {
-                fagg.ois = standardInputOIs;
+            int cmp = fagg.compareTo(objects, comparators);
+            if (cmp < 0) {
+                metrics.incrBufferReplacements();
+                copyObjects(fagg, objects, ois, serDe, metrics);
+                return true;
             }
+            return false;
+        }
 
-            if (fagg.objects == null){
-                fagg.objects =  copyObjects(objects, ois);
-            } else {
-                int cmp = fagg.compareTo(objects, ois);
-                LOG.info("buf: " + Arrays.asList(fagg.objects) + ", param: " + Arrays.asList(objects) + ", cmp :" + cmp);
-                if (cmp < 0) {
-                    fagg.objects =  copyObjects(objects, ois);
-                }
+        /**
+         * @return
+         *          val_col of a non-empty buffer. a serialized val_col is deserialized lazily,
+         *          and valid until the next call.
+         */
+        private Object getValue(FirstAgg fagg) throws HiveException {
+            if (valueSerDe == null) {
+                return fagg.objects[0];
             }
+            return valueSerDe.deserialize(fagg.valueBytes, 0, fagg.valueLength);
         }
 
-        private String[] selectOrders(Object[] objects, ObjectInspector[] ois) throws UDFArgumentException {
-            String[] ret = new String[(ois.length - 1) / 2];
-            int len = ret.length;
+        /**
+         * @return
+         *          true if key and value are copied into agg
+         */
+        private boolean aggregateKey(AggregationBuffer agg, BytesWritable key, Object value, ObjectInspector valueOI,
+                                     CmpColumnsCodec.ColumnSerDe serDe, FirstOrderedByMetrics metrics)
+                throws HiveException {
+            FirstAgg fagg = (FirstAgg) agg;
 
-            for (int i = 0; i < len; i++) {
-                int index = (i + 1) * 2;
-                Object object = objects[index];
-                PrimitiveObjectInspector poi = (PrimitiveObjectInspector) ois[index];
-                String order = (String) poi.getPrimitiveJavaObject(object);
-                ret[i] = order.toUpperCase();
+            if (fagg.empty) {
+                copyKeyAndValue(fagg, key, value, valueOI, serDe, metrics);
+                fagg.empty = false;
+                return true;
             }
-            return ret;
+            if (fagg.compareTo(key) < 0) {
+                metrics.incrBufferReplacements();
+                copyKeyAndValue(fagg, key, value, valueOI, serDe, metrics);
+                return true;
+            }
+            return false;
         }
 
-        private Object[] copyObjects(Object[] objects, ObjectInspector[] ois) {
-            int len = objects.length;
-            Object[] ret = new Object[len];
+        private void copyKeyAndValue(FirstAgg fagg, BytesWritable key, Object value, ObjectInspector valueOI,
+                                     CmpColumnsCodec.ColumnSerDe serDe, FirstOrderedByMetrics metrics)
+                throws HiveException {
+            if (fagg.objects == null) {
+                fagg.objects = new Object[1];
+                fagg.key = new BytesWritable();
+            }
 
-            for (int i = 0; i < len; i++) {
-                ret[i] = ObjectInspectorUtils.copyToStandardObject(objects[i], ois[i]);
+            // BytesWritable.set reuses its byte array while the capacity is enough
+            fagg.key.set(key.getBytes(), 0, key.getLength());
+            metrics.incrBytesCopied(key.getLength());
+            copyValue(fagg, value, valueOI, serDe, metrics);
+        }
+
+        private void copyObjects(FirstAgg fagg, Object[] objects, ObjectInspector[] ois,
+                                 CmpColumnsCodec.ColumnSerDe serDe, FirstOrderedByMetrics metrics)
+                throws HiveException {
+            fagg.copy(objects, ois, slots);
+
+            int len = ois.length;
+            for (int i = 1; i < len; i++) {
+                if (!isOrderColumn(i)) {
+                    metrics.incrBytesCopied(estimateBytes(objects[i], ois[i]));
+                }
+            }
+            if (valueSerDe == null) {
+                metrics.incrBytesCopied(estimateBytes(objects[0], ois[0]));
+            } else {
+                copyValue(fagg, objects[0], ois[0], serDe, metrics);
+            }
+        }
+
+        private void copyValue(FirstAgg fagg, Object value, ObjectInspector valueOI,
+                               CmpColumnsCodec.ColumnSerDe serDe, FirstOrderedByMetrics metrics) throws HiveException {
+            if (valueSerDe == null) {
+                fagg.objects[0] = valueSlot.set(fagg.objects[0], value, valueOI);
+                metrics.incrBytesCopied(estimateBytes(value, valueOI));
+            } else {
+                BytesWritable bytes = serDe.serialize(value, valueOI);
+                fagg.setValueBytes(bytes.getBytes(), bytes.getLength());
+                metrics.incrBytesCopied(bytes.getLength());
+            }
+        }
+
+        /**
+         * Estimate the size of a copied object for metrics.
+         * Only primitive values are counted.
+         */
+        private long estimateBytes(Object object, ObjectInspector oi) {
+            if (object == null || oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+                return 0;
             }
 
-            return ret;
+            PrimitiveObjectInspector poi = (PrimitiveObjectInspector) oi;
+            switch (poi.getPrimitiveCategory()) {
+                case BOOLEAN:
+                case BYTE:
+                    return 1;
+                case SHORT:
+                    return 2;
+                case INT:
+                case FLOAT:
+                    return 4;
+                case LONG:
+                case DOUBLE:
+                    return 8;
+                case TIMESTAMP:
+                    return 12;
+                case STRING:
+                    if (poi.preferWritable()) {
+                        return ((StringObjectInspector) poi).getPrimitiveWritableObject(object).getLength();
+                    }
+                    return ((StringObjectInspector) poi).getPrimitiveJavaObject(object).length();
+                default:
+                    return 0;
+            }
         }
     }
 }
@@ -0,0 +1,152 @@
+package in.chopl.hive.udaf;
+
+import in.chopl.hive.udaf.FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+
+import java.util.Arrays;
+
+@Description(name = "first_ordered_by_merge",
+             value = "_FUNC_(state[, value_hint])" +
+                     "- Merges states made by first_ordered_by_state(). Returns the merged state, or with value_hint, " +
+                     "the first value. value_hint is only used for its type, which must be the type of val_col",
+             extended = "Example:\n" +
+                        "  SELECT key, _FUNC_(state, CAST(NULL AS STRING)) FROM daily_states GROUP BY key")
+public class FirstOrderedByMerge extends AbstractGenericUDAFResolver {
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+        if (parameters.length != 1 && parameters.length != 2) {
+            throw new UDFArgumentLengthException("state and an optional value_hint are expected");
+        }
+
+        if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE ||
+            ((PrimitiveTypeInfo) parameters[0]).getPrimitiveCategory() != PrimitiveObjectInspector.PrimitiveCategory.BINARY) {
+            throw new UDFArgumentTypeException(0, "A type of state must be binary");
+        }
+
+        GenericUDAFFirstOrderedByMergeEvaluator evaluator = new GenericUDAFFirstOrderedByMergeEvaluator();
+        if (parameters.length == 2) {
+            evaluator.setValueType(parameters[1].getTypeName());
+        }
+        return evaluator;
+    }
+
+    /**
+     * Merges states with the merge() of first().
+     *
+     * A state is passed to first() as a partial whose val_col is the state itself, and whose cmp_cols are
+     * sliced from the state. The partial has no cmp_types, because cmp_cols of states start with their schema. So the winner of first() is the winning state, and val_col is deserialized
+     * only in terminate(). The partial of this evaluator is a state.
+     */
+    public static class GenericUDAFFirstOrderedByMergeEvaluator extends GenericUDAFEvaluator {
+        // type name of val_col, from value_hint. null to return the merged state.
+        // a bean property, so that it is kept through the serialization of query plans.
+        private String valueType;
+
+        private final GenericUDAFFirstOrderedByEvaluator delegate = new GenericUDAFFirstOrderedByEvaluator();
+        private final FirstOrderedByStateCodec stateCodec = new FirstOrderedByStateCodec();
+
+        private BinaryObjectInspector stateOI;
+        // a partial of delegate, reused
+        private Object[] delegatePartial;
+        private BytesWritable delegateCmpColumns;
+        private boolean returnsValue;
+
+        public String getValueType() {
+            return valueType;
+        }
+
+        public void setValueType(String valueType) {
+            this.valueType = valueType;
+        }
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
+            super.init(mode, parameters);
+
+            // states come in all modes. value_hint is ignored.
+            stateOI = (BinaryObjectInspector) parameters[0];
+
+            ObjectInspector delegatePartialOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+                    Arrays.asList(FirstOrderedBy.VALUE_COLUMN, FirstOrderedBy.COMPARED_COLUMNS),
+                    Arrays.<ObjectInspector>asList(
+                            PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+                            PrimitiveObjectInspectorFactory.writableBinaryObjectInspector));
+            delegate.init(Mode.PARTIAL2, new ObjectInspector[] {delegatePartialOI});
+            delegateCmpColumns = new BytesWritable();
+            delegatePartial = new Object[] {null, delegateCmpColumns};
+
+            returnsValue = valueType != null && (mode == Mode.FINAL || mode == Mode.COMPLETE);
+            if (returnsValue) {
+                stateCodec.setValueType(valueType);
+                return stateCodec.getValueObjectInspector();
+            }
+            return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            return delegate.getNewAggregationBuffer();
+        }
+
+        @Override
+        public void reset(AggregationBuffer agg) throws HiveException {
+            delegate.reset(agg);
+        }
+
+        @Override
+        public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+            merge(agg, parameters[0]);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+            return delegate.terminate(agg);
+        }
+
+        @Override
+        public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+
+            BytesWritable state = stateOI.getPrimitiveWritableObject(partial);
+            stateCodec.decode(state.getBytes(), 0, state.getLength());
+            if (valueType != null && !valueType.equals(stateCodec.getTypeName())) {
+                throw new HiveException("A type of val_col in the state is " + stateCodec.getTypeName() +
+                        ", but value_hint is " + valueType);
+            }
+
+            // BytesWritable.set reuses its byte array while the capacity is enough
+            delegateCmpColumns.set(state.getBytes(), stateCodec.getCmpColumnsStart(), stateCodec.getCmpColumnsLength());
+            delegatePartial[0] = state;
+            delegate.merge(agg, delegatePartial);
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer agg) throws HiveException {
+            BytesWritable state = (BytesWritable) delegate.terminate(agg);
+            if (state == null || !returnsValue) {
+                return state;
+            }
+
+            stateCodec.decode(state.getBytes(), 0, state.getLength());
+            return stateCodec.getValue();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package in.chopl.hive.udaf;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * Low-overhead counters for GenericUDAFFirstOrderedByEvaluator.
+ *
+ * Counting is a plain field increment, so it is cheap enough for the per-row path.
+ * The counts are published as Hadoop counters through MapredContext's Reporter
+ * when the running Hive provides one (Hive 0.11 or later). MapredContext is not
+ * part of Hive 0.10, so it is looked up by reflection and publishing is simply
+ * skipped when it is unavailable.
+ */
+public class FirstOrderedByMetrics {
+    static final Log LOG = LogFactory.getLog(FirstOrderedByMetrics.class.getName());
+
+    static final String COUNTER_GROUP = "FirstOrderedBy";
+
+    // minimum interval between publishing to the Reporter
+    static final long PUBLISH_INTERVAL_NANOS = 1000L * 1000L * 1000L;
+
+    public enum Counter {
+        ROWS_ITERATED,
+        BUFFER_REPLACEMENTS,
+        MERGES,
+        BYTES_COPIED,
+        ROWS_SKIPPED_AT_BOUND
+    }
+
+    private final long[] counts = new long[Counter.values().length];
+    private final long[] published = new long[Counter.values().length];
+
+    private long lastPublished = System.nanoTime();
+
+    // resolved lazily, because the Reporter is only set after the operator is initialized.
+    // a missing context or Reporter is retried by later publish() calls, which run at most once per interval.
+    private boolean reporterUnavailable = false;
+    private Object reporter;
+    private Method getContext;
+    private Method getReporter;
+    private Method incrCounter;
+
+    public void incrRowsIterated() {
+        counts[Counter.ROWS_ITERATED.ordinal()]++;
+    }
+
+    public void incrBufferReplacements() {
+        counts[Counter.BUFFER_REPLACEMENTS.ordinal()]++;
+    }
+
+    public void incrMerges() {
+        counts[Counter.MERGES.ordinal()]++;
+    }
+
+    public void incrBytesCopied(long bytes) {
+        counts[Counter.BYTES_COPIED.ordinal()] += bytes;
+    }
+
+    public void incrRowsSkippedAtBound() {
+        counts[Counter.ROWS_SKIPPED_AT_BOUND.ordinal()]++;
+    }
+
+    public long get(Counter counter) {
+        return counts[counter.ordinal()];
+    }
+
+    /**
+     * Add the counts of other, such as the ones of a task which has finished on another thread.
+     */
+    public void add(FirstOrderedByMetrics other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+    }
+
+    /**
+     * Publish counters if the publish interval has elapsed.
+     * Called once per group, not per row.
+     */
+    public void maybePublish() {
+        long now = System.nanoTime();
+        if (now - lastPublished >= PUBLISH_INTERVAL_NANOS) {
+            lastPublished = now;
+            publish();
+        }
+    }
+
+    /**
+     * Publish counts accumulated since the last call.
+     */
+    public void publish() {
+        if (!resolveReporter()) {
+            return;
+        }
+
+        for (Counter counter : Counter.values()) {
+            int i = counter.ordinal();
+            long delta = counts[i] - published[i];
+            if (delta == 0) {
+                continue;
+            }
+            try {
+                incrCounter.invoke(reporter, COUNTER_GROUP, counter.name(), delta);
+                published[i] = counts[i];
+            } catch (Exception e) {
+                LOG.warn("Failed to publish counter " + counter.name(), e);
+                reporter = null;
+                reporterUnavailable = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return
+     *          true if the Reporter is available. only a missing MapredContext class or a failure is remembered,
+     *          so a context or a Reporter which is not set yet is looked up again by the next call.
+     */
+    private boolean resolveReporter() {
+        if (reporter != null) {
+            return true;
+        }
+        if (reporterUnavailable) {
+            return false;
+        }
+
+        try {
+            if (getContext == null) {
+                Class<?> contextClass = Class.forName("org.apache.hadoop.hive.ql.exec.MapredContext");
+                Class<?> reporterClass = Class.forName("org.apache.hadoop.mapred.Reporter");
+                incrCounter = reporterClass.getMethod("incrCounter", String.class, String.class, long.class);
+                getReporter = contextClass.getMethod("getReporter");
+                getContext = contextClass.getMethod("get");
+            }
+
+            Object context = getContext.invoke(null);
+            if (context != null) {
+                reporter = getReporter.invoke(context);
+            }
+        } catch (ClassNotFoundException e) {
+            LOG.info("MapredContext is not available, counters are not published");
+            reporterUnavailable = true;
+        } catch (Exception e) {
+            LOG.warn("Failed to get Reporter from MapredContext", e);
+            reporterUnavailable = true;
+        }
+        return reporter != null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(COUNTER_GROUP).append('{');
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(counter.name()).append('=').append(counts[counter.ordinal()]);
+        }
+        return sb.append('}').toString();
+    }
+}
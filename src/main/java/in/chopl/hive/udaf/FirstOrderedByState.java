@@ -0,0 +1,115 @@
+package in.chopl.hive.udaf;
+
+import in.chopl.hive.udaf.FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+
+@Description(name = "first_ordered_by_state",
+             value = "_FUNC_(val_col, cmp_col1, cmp_col_order1, cmp_col2, cmp_cols_order1, ...)" +
+                     "- Returns the state of first() as a binary, to be merged later by first_ordered_by_merge()")
+public class FirstOrderedByState extends AbstractGenericUDAFResolver {
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+        FirstOrderedBy.checkParametersWithBound(parameters);
+
+        return new GenericUDAFFirstOrderedByStateEvaluator();
+    }
+
+    /**
+     * Runs first() up to its partial result, and encodes the final partial by FirstOrderedByStateCodec.
+     * The partial of this evaluator itself is the one of first().
+     */
+    public static class GenericUDAFFirstOrderedByStateEvaluator extends GenericUDAFEvaluator {
+        // stored states must not depend on session settings, so normalized keys are never used
+        private final GenericUDAFFirstOrderedByEvaluator delegate = new GenericUDAFFirstOrderedByEvaluator();
+        private final FirstOrderedByStateCodec stateCodec = new FirstOrderedByStateCodec();
+
+        // the partial of delegate, encoded in terminate()
+        private StructObjectInspector delegatePartialOI;
+        private StructField valueField;
+        private StructField cmpColumnsField;
+        private BinaryObjectInspector cmpColumnsOI;
+        // the schema of cmp_cols from cmp_types of the partial. states start their cmp_cols with it.
+        private byte[] cmpSchema;
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
+            super.init(mode, parameters);
+
+            switch (mode) {
+                case PARTIAL1:
+                case PARTIAL2:
+                    return delegate.init(mode, parameters);
+                case FINAL:
+                    initDelegatePartial(delegate.init(Mode.PARTIAL2, parameters));
+                    return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+                case COMPLETE:
+                    initDelegatePartial(delegate.init(Mode.PARTIAL1, parameters));
+                    return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+                default:
+                    throw new RuntimeException("Unknown aggregation mode: "+ mode);
+            }
+        }
+
+        private void initDelegatePartial(ObjectInspector oi) throws HiveException {
+            delegatePartialOI = (StructObjectInspector) oi;
+            valueField = delegatePartialOI.getStructFieldRef(FirstOrderedBy.VALUE_COLUMN);
+            cmpColumnsField = delegatePartialOI.getStructFieldRef(FirstOrderedBy.COMPARED_COLUMNS);
+            cmpColumnsOI = (BinaryObjectInspector) cmpColumnsField.getFieldObjectInspector();
+
+            StructField cmpTypesField = delegatePartialOI.getStructFieldRef(FirstOrderedBy.COMPARED_TYPES);
+            CmpColumnsCodec schemaCodec = new CmpColumnsCodec(true);
+            schemaCodec.setSchema((StructObjectInspector) cmpTypesField.getFieldObjectInspector());
+            cmpSchema = schemaCodec.getSchemaBytes();
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            return delegate.getNewAggregationBuffer();
+        }
+
+        @Override
+        public void reset(AggregationBuffer agg) throws HiveException {
+            delegate.reset(agg);
+        }
+
+        @Override
+        public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+            delegate.iterate(agg, parameters);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+            return delegate.terminatePartial(agg);
+        }
+
+        @Override
+        public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+            delegate.merge(agg, partial);
+        }
+
+        @Override
+        public Object terminate(AggregationBuffer agg) throws HiveException {
+            Object partial = delegate.terminatePartial(agg);
+            if (partial == null) {
+                return null;
+            }
+
+            BytesWritable cmpColumns =
+                    cmpColumnsOI.getPrimitiveWritableObject(delegatePartialOI.getStructFieldData(partial, cmpColumnsField));
+            return stateCodec.encode(delegatePartialOI.getStructFieldData(partial, valueField),
+                    valueField.getFieldObjectInspector(), cmpSchema, cmpColumns);
+        }
+    }
+}
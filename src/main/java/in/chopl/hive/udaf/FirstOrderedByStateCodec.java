@@ -0,0 +1,142 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.IOException;
+
+/**
+ * Versioned binary form of a first() aggregation state, to be stored in tables and merged later.
+ *
+ * Layout:
+ * <pre>
+ *   byte        VERSION
+ *   string      type name of val_col
+ *   vint        length of val_col bytes (n)
+ *   n bytes     val_col serialized by LazyBinarySerDe
+ *   bytes       cmp_cols encoded by CmpColumnsCodec with an inline schema, up to the end
+ * </pre>
+ *
+ * States are compared by cmp_cols only, so merging them does not need the type of val_col.
+ */
+class FirstOrderedByStateCodec {
+    // 2 since cmp_cols are null bits and values after an inline schema, instead of tagged values
+    static final byte VERSION = 2;
+
+    private final DataOutputBuffer out = new DataOutputBuffer();
+    private final DataInputBuffer in = new DataInputBuffer();
+    private final BytesWritable result = new BytesWritable();
+
+    // built on the first encode() or getValue(), because the type of val_col is only known then
+    private CmpColumnsCodec.ColumnSerDe valueSerDe;
+
+    // decoded state
+    private byte[] bytes;
+    private String typeName;
+    private int valueStart;
+    private int valueLength;
+    private int cmpColumnsStart;
+    private int cmpColumnsLength;
+
+    /**
+     * @param cmpSchema
+     *          the schema of cmp_cols by CmpColumnsCodec.getSchemaBytes(), written before cmpColumns
+     * @param cmpColumns
+     *          cmp_cols encoded by CmpColumnsCodec without an inline schema
+     * @return
+     *          the encoded state. it is reused, and valid until the next call.
+     */
+    BytesWritable encode(Object value, ObjectInspector valueOI, byte[] cmpSchema, BytesWritable cmpColumns)
+            throws HiveException {
+        if (valueSerDe == null) {
+            valueSerDe = new CmpColumnsCodec.ColumnSerDe(valueOI.getTypeName());
+        }
+        BytesWritable valueBytes = valueSerDe.serialize(value, valueOI);
+
+        try {
+            out.reset();
+            out.writeByte(VERSION);
+            WritableUtils.writeString(out, valueSerDe.typeName);
+            WritableUtils.writeVInt(out, valueBytes.getLength());
+            out.write(valueBytes.getBytes(), 0, valueBytes.getLength());
+            out.write(cmpSchema);
+            out.write(cmpColumns.getBytes(), 0, cmpColumns.getLength());
+        } catch (IOException e) {
+            throw new HiveException(e);
+        }
+
+        result.set(out.getData(), 0, out.getLength());
+        return result;
+    }
+
+    /**
+     * Decode a state. The results are available through getters until the next call.
+     */
+    void decode(byte[] bytes, int start, int length) throws HiveException {
+        in.reset(bytes, start, length);
+
+        try {
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new HiveException("Unsupported state version: " + version + ", expected " + VERSION);
+            }
+
+            typeName = WritableUtils.readString(in);
+            valueLength = WritableUtils.readVInt(in);
+            valueStart = in.getPosition();
+        } catch (IOException e) {
+            throw new HiveException(e);
+        }
+
+        this.bytes = bytes;
+        cmpColumnsStart = valueStart + valueLength;
+        cmpColumnsLength = start + length - cmpColumnsStart;
+        if (cmpColumnsLength < 0) {
+            throw new HiveException("Truncated state");
+        }
+    }
+
+    String getTypeName() {
+        return typeName;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int getCmpColumnsStart() {
+        return cmpColumnsStart;
+    }
+
+    int getCmpColumnsLength() {
+        return cmpColumnsLength;
+    }
+
+    /**
+     * Deserialize val_col of the decoded state.
+     * The result is described by getValueObjectInspector(), and valid until the next call.
+     */
+    Object getValue() throws HiveException {
+        if (valueSerDe == null) {
+            valueSerDe = new CmpColumnsCodec.ColumnSerDe(typeName);
+        } else if (!valueSerDe.typeName.equals(typeName)) {
+            throw new HiveException("Unexpected type of val_col: " + typeName + ", expected " + valueSerDe.typeName);
+        }
+        return valueSerDe.deserialize(bytes, valueStart, valueLength);
+    }
+
+    /**
+     * Use typeName for val_col, instead of the one of the first state.
+     */
+    void setValueType(String typeName) throws HiveException {
+        valueSerDe = new CmpColumnsCodec.ColumnSerDe(typeName);
+    }
+
+    ObjectInspector getValueObjectInspector() {
+        return valueSerDe.fieldOI;
+    }
+}
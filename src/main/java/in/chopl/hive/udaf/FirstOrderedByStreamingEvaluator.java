@@ -0,0 +1,202 @@
+package in.chopl.hive.udaf;
+
+import in.chopl.hive.udaf.FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+
+/**
+ * Evaluates first() over the sliding frame ROWS BETWEEN numPreceding PRECEDING AND numFollowing FOLLOWING
+ * in a single pass over a partition.
+ *
+ * Candidates are kept in a deque ordered by row. A new row removes the candidates at the tail which it comes
+ * before, and candidates which fall out of the frame are removed from the head, so the head is always the first
+ * row of the current frame. Each row costs amortized O(1), and the deque holds at most
+ * numPreceding + numFollowing + 1 rows.
+ *
+ * This follows the streaming contract of Hive windowing (ISupportStreamingModeForWindowing in Hive 0.12 or later):
+ * rows are passed by iterate(), results are taken by getNextResult(), and the results of the last
+ * getRowsRemainingAfterTerminate() rows become available after terminate().
+ *
+ * This is a forward-port shim. Nothing in Hive 0.10 calls it, because Hive 0.10 has no windowing, and it can not
+ * implement ISupportStreamingModeForWindowing, which Hive 0.10 does not have. It is only created by
+ * GenericUDAFFirstOrderedByEvaluator.getWindowingEvaluator(int, int). A build against Hive 0.12 or later should
+ * declare the interface here, and delegate getWindowingEvaluator(WindowFrameDef) to the one above.
+ */
+public class FirstOrderedByStreamingEvaluator extends GenericUDAFEvaluator {
+    // returned by getNextResult() for a null result, because null means no result is available yet.
+    // Hive windowing checks it by identity, so it is ISupportStreamingModeForWindowing.NULL_RESULT when available.
+    public static final Object NULL_RESULT = lookupNullResult();
+
+    static final int UNBOUNDED = -1;
+
+    // UNBOUNDED for UNBOUNDED PRECEDING
+    private final int numPreceding;
+    private final int numFollowing;
+
+    private ObjectInspector[] inputOIs;
+    private ObjectInspector valueOI;
+    private ValueSlot[] slots;
+    private ColumnComparator[] comparators;
+
+    /**
+     * @return
+     *          ISupportStreamingModeForWindowing.NULL_RESULT, or a new sentinel on Hive 0.11 or earlier
+     */
+    private static Object lookupNullResult() {
+        try {
+            return Class.forName("org.apache.hadoop.hive.ql.udf.generic.ISupportStreamingModeForWindowing")
+                    .getField("NULL_RESULT").get(null);
+        } catch (ClassNotFoundException e) {
+            return new Object();
+        } catch (Exception e) {
+            FirstOrderedBy.LOG.warn("Failed to get NULL_RESULT of ISupportStreamingModeForWindowing", e);
+            return new Object();
+        }
+    }
+
+    public FirstOrderedByStreamingEvaluator(int numPreceding, int numFollowing) {
+        this.numPreceding = numPreceding;
+        this.numFollowing = numFollowing;
+    }
+
+    @Override
+    public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
+        super.init(mode, parameters);
+
+        if (mode != Mode.COMPLETE) {
+            throw new HiveException("Only COMPLETE mode is supported for windowing, but " + mode + " was passed");
+        }
+
+        // rows can not be skipped in sliding frames, so cmp_col_bound1 is ignored
+        parameters = FirstOrderedBy.withoutBound(parameters);
+        FirstOrderedBy.checkInputOIs(parameters, 0);
+        inputOIs = parameters;
+
+        String[] orders = FirstOrderedBy.selectConstantOrders(parameters, 0);
+        comparators = ColumnComparator.create(ValueSlot.getObjectInspectors(parameters), parameters, orders);
+
+        slots = ValueSlot.create(parameters);
+        valueOI = ValueSlot.getObjectInspector(parameters[0]);
+        return ObjectInspectorUtils.getStandardObjectInspector(valueOI);
+    }
+
+    static class Candidate {
+        int index;
+        final FirstAgg row = new FirstAgg();
+    }
+
+    static class StreamingAgg implements AggregationBuffer {
+        // candidates ordered by index. the head is the first row of the current frame.
+        final ArrayDeque<Candidate> candidates = new ArrayDeque<Candidate>();
+        // removed candidates, to be reused
+        final ArrayDeque<Candidate> free = new ArrayDeque<Candidate>();
+        // results not taken yet. null results are stored as NULL_RESULT.
+        final LinkedList<Object> results = new LinkedList<Object>();
+        int numRows;
+        int numResults;
+
+        void init() {
+            free.addAll(candidates);
+            candidates.clear();
+            results.clear();
+            numRows = 0;
+            numResults = 0;
+        }
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+        return new StreamingAgg();
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+        ((StreamingAgg) agg).init();
+    }
+
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+        StreamingAgg sagg = (StreamingAgg) agg;
+        ArrayDeque<Candidate> candidates = sagg.candidates;
+
+        // drop candidates which the new row comes before. ties are kept, because the earlier row wins them.
+        while (!candidates.isEmpty() && candidates.peekLast().row.compareTo(parameters, comparators) < 0) {
+            sagg.free.addLast(candidates.pollLast());
+        }
+
+        // with UNBOUNDED PRECEDING, the head never expires, so only a new first row is worth keeping
+        if (numPreceding != UNBOUNDED || candidates.isEmpty()) {
+            Candidate candidate = sagg.free.isEmpty() ? new Candidate() : sagg.free.pollLast();
+            candidate.index = sagg.numRows;
+            candidate.row.copy(parameters, inputOIs, slots);
+            candidates.addLast(candidate);
+        }
+        sagg.numRows++;
+
+        // the frame of a row is complete once its last following row is read
+        if (sagg.numRows > numFollowing) {
+            addResult(sagg);
+        }
+    }
+
+    /**
+     * Add the result for the next row, whose frame ends at min(row + numFollowing, numRows - 1).
+     */
+    private void addResult(StreamingAgg sagg) {
+        int row = sagg.numResults;
+
+        if (numPreceding != UNBOUNDED) {
+            while (sagg.candidates.peekFirst().index < row - numPreceding) {
+                sagg.free.addLast(sagg.candidates.pollFirst());
+            }
+        }
+
+        Object value = sagg.candidates.peekFirst().row.objects[0];
+        sagg.results.addLast(value == null ? NULL_RESULT : ObjectInspectorUtils.copyToStandardObject(value, valueOI));
+        sagg.numResults++;
+    }
+
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+        throw new HiveException("terminatePartial is not supported for windowing");
+    }
+
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+        throw new HiveException("merge is not supported for windowing");
+    }
+
+    /**
+     * Add results for the last rows, whose frames are cut at the end of the partition.
+     *
+     * @return
+     *          null. results are taken by getNextResult().
+     */
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+        StreamingAgg sagg = (StreamingAgg) agg;
+        while (sagg.numResults < sagg.numRows) {
+            addResult(sagg);
+        }
+        return null;
+    }
+
+    /**
+     * @return
+     *          the result for the next row, NULL_RESULT for a null result,
+     *          or null if the frame of the next row is not complete yet
+     */
+    public Object getNextResult(AggregationBuffer agg) throws HiveException {
+        LinkedList<Object> results = ((StreamingAgg) agg).results;
+        return results.isEmpty() ? null : results.removeFirst();
+    }
+
+    public int getRowsRemainingAfterTerminate() throws HiveException {
+        return numFollowing;
+    }
+}
@@ -0,0 +1,95 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.binarysortable.BinarySortableSerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Encodes cmp_cols into a single byte-comparable key with BinarySortableSerDe,
+ * the same encoding as Hive uses for sort keys of ReduceSinkOperator.
+ *
+ * ASC/DESC is applied by inverting the bytes of DESC columns, and nulls come first in ASC
+ * and last in DESC, so comparing two keys by unsigned bytes gives the same order as
+ * ColumnComparators: a smaller key comes first.
+ */
+class SortKeyEncoder {
+    private final BinarySortableSerDe serde = new BinarySortableSerDe();
+    private final StructObjectInspector rowOI;
+    private final Object[] row;
+
+    /**
+     * @param ois
+     *          ObjectInspectors in the layout of UDAF parameters. cmp_cols are at odd indices.
+     * @param orders
+     *          upper-cased cmp_col_orders
+     */
+    SortKeyEncoder(ObjectInspector[] ois, String[] orders) throws HiveException {
+        int len = orders.length;
+        List<String> names = new ArrayList<String>(len);
+        List<ObjectInspector> cmpOIs = new ArrayList<ObjectInspector>(len);
+        StringBuilder types = new StringBuilder();
+        StringBuilder sortOrder = new StringBuilder();
+
+        for (int i = 0; i < len; i++) {
+            ObjectInspector oi = ois[i * 2 + 1];
+            names.add("c" + i);
+            cmpOIs.add(oi);
+            if (i > 0) {
+                types.append(':');
+            }
+            types.append(oi.getTypeName());
+            sortOrder.append(FirstOrderedBy.DESC_ORDER.equals(orders[i]) ? '-' : '+');
+        }
+
+        Properties props = new Properties();
+        props.setProperty("columns", join(names));
+        props.setProperty("columns.types", types.toString());
+        props.setProperty("serialization.sort.order", sortOrder.toString());
+        try {
+            serde.initialize(null, props);
+        } catch (SerDeException e) {
+            throw new HiveException(e);
+        }
+
+        rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(names, cmpOIs);
+        row = new Object[len];
+    }
+
+    /**
+     * Encode cmp_cols of parameters.
+     *
+     * @return
+     *          the key, which is reused by the next call
+     */
+    BytesWritable encode(Object[] parameters) throws HiveException {
+        int len = row.length;
+        for (int i = 0; i < len; i++) {
+            row[i] = parameters[i * 2 + 1];
+        }
+
+        try {
+            return (BytesWritable) serde.serialize(row, rowOI);
+        } catch (SerDeException e) {
+            throw new HiveException(e);
+        }
+    }
+
+    private static String join(List<String> names) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,368 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.io.TimestampWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies values of one buffered column into reusable holders.
+ *
+ * A ValueSlot is stateless and shared by all buffers of an evaluator, and the holders are owned by the buffers.
+ * Primitive and string values are written into a writable holder, so replacing the winner does not allocate.
+ * A struct is held as an Object[] of field holders, so several val_cols can be packed into one struct.
+ * Other types fall back to ObjectInspectorUtils.copyToStandardObject.
+ */
+abstract class ValueSlot {
+    /**
+     * Copy a value into a holder.
+     *
+     * @param holder
+     *          the holder returned by the previous call for the same buffer and column, or null
+     * @return
+     *          the buffered object, described by getObjectInspector(inputOI). null if the value is null.
+     */
+    final Object set(Object holder, Object o, ObjectInspector oi) {
+        if (o == null) {
+            return null;
+        }
+        return setNonNull(holder == null ? newHolder() : holder, o, oi);
+    }
+
+    abstract Object newHolder();
+
+    abstract Object setNonNull(Object holder, Object o, ObjectInspector oi);
+
+    static boolean isSupported(ObjectInspector oi) {
+        if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            return false;
+        }
+
+        switch (((PrimitiveObjectInspector) oi).getPrimitiveCategory()) {
+            case BOOLEAN:
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case STRING:
+            case TIMESTAMP:
+            case BINARY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * ObjectInspector for objects returned by a slot created for inputOI.
+     */
+    static ObjectInspector getObjectInspector(ObjectInspector inputOI) {
+        if (isSupported(inputOI)) {
+            return PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+                    ((PrimitiveObjectInspector) inputOI).getPrimitiveCategory());
+        }
+
+        if (inputOI.getCategory() == ObjectInspector.Category.STRUCT) {
+            List<? extends StructField> fields = ((StructObjectInspector) inputOI).getAllStructFieldRefs();
+            List<String> fieldNames = new ArrayList<String>(fields.size());
+            List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(fields.size());
+            for (StructField field : fields) {
+                fieldNames.add(field.getFieldName());
+                fieldOIs.add(getObjectInspector(field.getFieldObjectInspector()));
+            }
+            return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+        }
+        return ObjectInspectorUtils.getStandardObjectInspector(inputOI);
+    }
+
+    /**
+     * ObjectInspectors for objects returned by slots created by create(ObjectInspector[]).
+     *
+     * @param ois
+     *          ObjectInspectors in the layout of UDAF parameters
+     * @return
+     *          ObjectInspectors at the same indices. null for cmp_col_orders.
+     */
+    static ObjectInspector[] getObjectInspectors(ObjectInspector[] ois) {
+        int len = ois.length;
+        ObjectInspector[] ret = new ObjectInspector[len];
+        for (int i = 0; i < len; i++) {
+            if (!FirstOrderedBy.isOrderColumn(i)) {
+                ret[i] = getObjectInspector(ois[i]);
+            }
+        }
+        return ret;
+    }
+
+    static ValueSlot create(ObjectInspector inputOI) {
+        if (inputOI.getCategory() == ObjectInspector.Category.STRUCT) {
+            return new StructSlot((StructObjectInspector) inputOI);
+        }
+
+        if (!isSupported(inputOI)) {
+            return new StandardObjectSlot();
+        }
+
+        switch (((PrimitiveObjectInspector) inputOI).getPrimitiveCategory()) {
+            case BOOLEAN:
+                return new BooleanSlot();
+            case BYTE:
+                return new ByteSlot();
+            case SHORT:
+                return new ShortSlot();
+            case INT:
+                return new IntSlot();
+            case LONG:
+                return new LongSlot();
+            case FLOAT:
+                return new FloatSlot();
+            case DOUBLE:
+                return new DoubleSlot();
+            case STRING:
+                return new TextSlot();
+            case TIMESTAMP:
+                return new TimestampSlot();
+            case BINARY:
+                return new BinarySlot();
+            default:
+                throw new IllegalArgumentException("Unsupported type: " + inputOI.getTypeName());
+        }
+    }
+
+    /**
+     * Create ValueSlots for val_col and cmp_cols.
+     *
+     * @param ois
+     *          ObjectInspectors in the layout of UDAF parameters
+     * @return
+     *          ValueSlots at the same indices. null for cmp_col_orders.
+     */
+    static ValueSlot[] create(ObjectInspector[] ois) {
+        int len = ois.length;
+        ValueSlot[] slots = new ValueSlot[len];
+        for (int i = 0; i < len; i++) {
+            if (!FirstOrderedBy.isOrderColumn(i)) {
+                slots[i] = create(ois[i]);
+            }
+        }
+        return slots;
+    }
+
+    static class BooleanSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new BooleanWritable();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            ((BooleanWritable) holder).set(((BooleanObjectInspector) oi).get(o));
+            return holder;
+        }
+    }
+
+    static class ByteSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new ByteWritable();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            ((ByteWritable) holder).set(((ByteObjectInspector) oi).get(o));
+            return holder;
+        }
+    }
+
+    static class ShortSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new ShortWritable();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            ((ShortWritable) holder).set(((ShortObjectInspector) oi).get(o));
+            return holder;
+        }
+    }
+
+    static class IntSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new IntWritable();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            ((IntWritable) holder).set(((IntObjectInspector) oi).get(o));
+            return holder;
+        }
+    }
+
+    static class LongSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new LongWritable();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            ((LongWritable) holder).set(((LongObjectInspector) oi).get(o));
+            return holder;
+        }
+    }
+
+    static class FloatSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new FloatWritable();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            ((FloatWritable) holder).set(((FloatObjectInspector) oi).get(o));
+            return holder;
+        }
+    }
+
+    static class DoubleSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new DoubleWritable();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            ((DoubleWritable) holder).set(((DoubleObjectInspector) oi).get(o));
+            return holder;
+        }
+    }
+
+    static class TextSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new Text();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            // Text.set reuses its byte array while the capacity is enough
+            Text text = (Text) holder;
+            StringObjectInspector soi = (StringObjectInspector) oi;
+            if (soi.preferWritable()) {
+                text.set(soi.getPrimitiveWritableObject(o));
+            } else {
+                text.set(soi.getPrimitiveJavaObject(o));
+            }
+            return text;
+        }
+    }
+
+    static class TimestampSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            // TimestampWritable.set(Timestamp) keeps the reference, and getTimestamp() returns it.
+            // so the holder owns this Timestamp, and later values are copied into it.
+            return new TimestampWritable(new Timestamp(0));
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            TimestampWritable writable = (TimestampWritable) holder;
+            Timestamp src = ((TimestampObjectInspector) oi).getPrimitiveJavaObject(o);
+            Timestamp ts = writable.getTimestamp();
+            ts.setTime(src.getTime());
+            ts.setNanos(src.getNanos());
+            // invalidates the cached bytes
+            writable.set(ts);
+            return writable;
+        }
+    }
+
+    static class BinarySlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return new BytesWritable();
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            // BytesWritable.set reuses its byte array while the capacity is enough
+            BytesWritable bytes = (BytesWritable) holder;
+            BytesWritable src = ((BinaryObjectInspector) oi).getPrimitiveWritableObject(o);
+            bytes.set(src.getBytes(), 0, src.getLength());
+            return bytes;
+        }
+    }
+
+    static class StructSlot extends ValueSlot {
+        private final ValueSlot[] fieldSlots;
+
+        StructSlot(StructObjectInspector inputOI) {
+            List<? extends StructField> fields = inputOI.getAllStructFieldRefs();
+            fieldSlots = new ValueSlot[fields.size()];
+            for (int i = 0; i < fieldSlots.length; i++) {
+                fieldSlots[i] = create(fields.get(i).getFieldObjectInspector());
+            }
+        }
+
+        @Override
+        Object newHolder() {
+            return new Object[fieldSlots.length];
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            Object[] values = (Object[]) holder;
+            StructObjectInspector soi = (StructObjectInspector) oi;
+            List<? extends StructField> fields = soi.getAllStructFieldRefs();
+            for (int i = 0; i < fieldSlots.length; i++) {
+                StructField field = fields.get(i);
+                values[i] = fieldSlots[i].set(values[i], soi.getStructFieldData(o, field), field.getFieldObjectInspector());
+            }
+            return values;
+        }
+    }
+
+    static class StandardObjectSlot extends ValueSlot {
+        @Override
+        Object newHolder() {
+            return null;
+        }
+
+        @Override
+        Object setNonNull(Object holder, Object o, ObjectInspector oi) {
+            return ObjectInspectorUtils.copyToStandardObject(o, oi);
+        }
+    }
+}
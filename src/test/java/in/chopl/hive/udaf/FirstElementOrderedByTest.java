@@ -0,0 +1,77 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FirstElementOrderedByTest {
+    ObjectInspector listOI;
+
+    @Before
+    public void setUp() throws Exception {
+        ObjectInspector elementOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+                Arrays.asList("val", "cmp1", "cmp2"),
+                Arrays.<ObjectInspector>asList(
+                        PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                        PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                        PrimitiveObjectInspectorFactory.javaStringObjectInspector));
+        listOI = ObjectInspectorFactory.getStandardListObjectInspector(elementOI);
+    }
+
+    private static ObjectInspector constant(String s) {
+        return PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text(s));
+    }
+
+    private Object evaluate(List<?> list, String... args) throws Exception {
+        ObjectInspector[] ois = new ObjectInspector[args.length + 1];
+        ois[0] = listOI;
+        for (int i = 0; i < args.length; i++) {
+            ois[i + 1] = constant(args[i]);
+        }
+
+        FirstElementOrderedBy udf = new FirstElementOrderedBy();
+        udf.initialize(ois);
+        return udf.evaluate(new GenericUDF.DeferredObject[] {new GenericUDF.DeferredJavaObject(list)});
+    }
+
+    @Test
+    public void testEvaluate() throws Exception {
+        List<?> list = Arrays.asList(
+                Arrays.asList("a", 3, "x"),
+                null,
+                Arrays.asList("b", 5, "x"),
+                Arrays.asList("c", 5, "y"),
+                Arrays.asList("d", null, "z"),
+                Arrays.asList("e", 1, "x"));
+
+        assertEquals("b", evaluate(list, "val", "cmp1", "DESC"));
+        assertEquals("d", evaluate(list, "val", "cmp1", "ASC"));
+        assertEquals("c", evaluate(list, "val", "cmp1", "DESC", "cmp2", "DESC"));
+        assertEquals(5, evaluate(list, "cmp1", "cmp2", "ASC", "cmp1", "desc"));
+
+        assertNull(evaluate(null, "val", "cmp1", "ASC"));
+        assertNull(evaluate(Arrays.asList(), "val", "cmp1", "ASC"));
+    }
+
+    @Test(expected = UDFArgumentException.class)
+    public void testInitializeWithUnknownField() throws Exception {
+        evaluate(null, "val", "unknown", "ASC");
+    }
+
+    @Test(expected = UDFArgumentException.class)
+    public void testInitializeWithInvalidOrder() throws Exception {
+        evaluate(null, "val", "cmp1", "UP");
+    }
+}
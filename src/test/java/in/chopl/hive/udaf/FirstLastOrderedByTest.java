@@ -0,0 +1,99 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FirstLastOrderedByTest {
+    FirstLastOrderedBy firstLastOrderedBy;
+    GenericUDAFEvaluator evaluator;
+    TypeInfo[] types;
+    ObjectInspector[] inputOIs;
+    ObjectInspector[] partialOI;
+
+    Object[] param1 = {"a", 3, new Text("ASC")};
+    Object[] param2 = {"b", 1, new Text("ASC")};
+    Object[] param3 = {"c", 5, new Text("ASC")};
+    Object[] param4 = {"d", 5, new Text("ASC")};
+    Object[] param5 = {"e", 0, new Text("ASC")};
+
+    @Before
+    public void setUp() throws Exception {
+        firstLastOrderedBy = new FirstLastOrderedBy();
+
+        types = new TypeInfo[] {
+                TypeInfoFactory.stringTypeInfo,
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo};
+        evaluator = firstLastOrderedBy.getEvaluator(types);
+
+        inputOIs = new ObjectInspector[3];
+        inputOIs[0] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING);
+        inputOIs[1] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.INT);
+        inputOIs[2] = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text("ASC"));
+
+        partialOI = new ObjectInspector[1];
+    }
+
+    @Test(expected = UDFArgumentLengthException.class)
+    public void testGetEvaluatorWithNoCmpCol() throws Exception {
+        firstLastOrderedBy.getEvaluator(new TypeInfo[] {TypeInfoFactory.stringTypeInfo});
+    }
+
+    @Test
+    public void testTerminate() throws Exception {
+        StructObjectInspector outputOI =
+                (StructObjectInspector) evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+
+        evaluator.iterate(agg, param1);
+        assertEquals(Arrays.<Object>asList(new Text("a"), new Text("a")),
+                outputOI.getStructFieldsDataAsList(evaluator.terminate(agg)));
+
+        evaluator.iterate(agg, param2);
+        evaluator.iterate(agg, param3);
+        // ties keep the earlier row
+        evaluator.iterate(agg, param4);
+        assertEquals(Arrays.<Object>asList(new Text("b"), new Text("c")),
+                outputOI.getStructFieldsDataAsList(evaluator.terminate(agg)));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        partialOI[0] = evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg1 = evaluator.getNewAggregationBuffer();
+        GenericUDAFEvaluator.AggregationBuffer agg2 = evaluator.getNewAggregationBuffer();
+
+        GenericUDAFEvaluator merger = firstLastOrderedBy.getEvaluator(types);
+        StructObjectInspector outputOI =
+                (StructObjectInspector) merger.init(GenericUDAFEvaluator.Mode.FINAL, partialOI);
+        GenericUDAFEvaluator.AggregationBuffer agg = merger.getNewAggregationBuffer();
+
+        // partials are reused by the evaluator, so merge the first one before making the next
+        evaluator.iterate(agg1, param1);
+        evaluator.iterate(agg1, param2);
+        merger.merge(agg, evaluator.terminatePartial(agg1));
+
+        evaluator.iterate(agg2, param3);
+        evaluator.iterate(agg2, param5);
+        merger.merge(agg, evaluator.terminatePartial(agg2));
+
+        assertEquals(Arrays.<Object>asList(new Text("e"), new Text("c")),
+                outputOI.getStructFieldsDataAsList(merger.terminate(agg)));
+    }
+}
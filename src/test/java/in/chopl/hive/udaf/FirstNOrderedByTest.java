@@ -0,0 +1,125 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FirstNOrderedByTest {
+    FirstNOrderedBy firstNOrderedBy;
+    GenericUDAFEvaluator evaluator;
+    ObjectInspector[] inputOIs;
+    ObjectInspector[] partialOI;
+
+    Object[] param1 = {3, "a", 1, new Text("ASC")};
+    Object[] param2 = {3, "b", 5, new Text("ASC")};
+    Object[] param3 = {3, "c", 3, new Text("ASC")};
+    Object[] param4 = {3, "d", 0, new Text("ASC")};
+    Object[] param5 = {3, "e", 4, new Text("ASC")};
+
+    @Before
+    public void setUp() throws Exception {
+        firstNOrderedBy = new FirstNOrderedBy();
+
+        TypeInfo[] types = {
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo,
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo};
+        evaluator = firstNOrderedBy.getEvaluator(types);
+
+        inputOIs = new ObjectInspector[4];
+        inputOIs[0] = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.INT, new IntWritable(3));
+        inputOIs[1] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING);
+        inputOIs[2] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.INT);
+        inputOIs[3] = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text("ASC"));
+
+        partialOI = new ObjectInspector[1];
+    }
+
+    @Test(expected = UDFArgumentLengthException.class)
+    public void testGetEvaluatorWithNoCmpCol() throws Exception {
+        TypeInfo[] types = {TypeInfoFactory.intTypeInfo, TypeInfoFactory.stringTypeInfo};
+        firstNOrderedBy.getEvaluator(types);
+    }
+
+    @Test(expected = UDFArgumentTypeException.class)
+    public void testGetEvaluatorWithInvalidNType() throws Exception {
+        TypeInfo[] types = {
+                TypeInfoFactory.stringTypeInfo,
+                TypeInfoFactory.stringTypeInfo,
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo};
+        firstNOrderedBy.getEvaluator(types);
+    }
+
+    @Test(expected = UDFArgumentTypeException.class)
+    public void testInitWithNonConstantN() throws Exception {
+        inputOIs[0] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.INT);
+        evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+    }
+
+    @Test
+    public void testTerminate() throws Exception {
+        evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+
+        evaluator.iterate(agg, param1);
+        evaluator.iterate(agg, param2);
+        assertEquals(Arrays.asList(new Text("a"), new Text("b")), evaluator.terminate(agg));
+
+        evaluator.iterate(agg, param3);
+        evaluator.iterate(agg, param4);
+        evaluator.iterate(agg, param5);
+        assertEquals(Arrays.asList(new Text("d"), new Text("a"), new Text("c")), evaluator.terminate(agg));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        partialOI[0] = evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg1 = evaluator.getNewAggregationBuffer();
+        GenericUDAFEvaluator.AggregationBuffer agg2 = evaluator.getNewAggregationBuffer();
+
+        evaluator.iterate(agg1, param1);
+        evaluator.iterate(agg1, param2);
+        evaluator.iterate(agg1, param5);
+        Object partial1 = evaluator.terminatePartial(agg1);
+
+        // partial entries are reused by the evaluator, so merge the first one before making the next
+        GenericUDAFEvaluator merger = firstNOrderedBy.getEvaluator(new TypeInfo[] {
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo,
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo});
+        merger.init(GenericUDAFEvaluator.Mode.FINAL, partialOI);
+        GenericUDAFEvaluator.AggregationBuffer agg = merger.getNewAggregationBuffer();
+        merger.merge(agg, partial1);
+        assertEquals(Arrays.asList(new Text("a"), new Text("e"), new Text("b")), merger.terminate(agg));
+
+        evaluator.iterate(agg2, param3);
+        evaluator.iterate(agg2, param4);
+        Object partial2 = evaluator.terminatePartial(agg2);
+        merger.merge(agg, partial2);
+
+        List<?> result = (List<?>) merger.terminate(agg);
+        assertEquals(Arrays.asList(new Text("d"), new Text("a"), new Text("c")), result);
+    }
+}
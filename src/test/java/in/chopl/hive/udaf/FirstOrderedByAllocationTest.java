@@ -0,0 +1,170 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.TimestampWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+
+import static org.junit.Assert.*;
+
+/**
+ * Guards the allocation-free paths of iterate() and merge().
+ *
+ * Every row is strictly better than the buffered one, so each call copies the row into the buffer,
+ * which is the worst case. Bytes allocated by the test thread are measured by ThreadMXBean,
+ * and must stay under the budget per row of each scenario. The budgets only absorb the noise
+ * of the measurement, so an object allocated per row fails the test.
+ */
+public class FirstOrderedByAllocationTest {
+    static final int DISTINCT_ROWS = 1024;
+    static final int WARMUP_ROWS = 200000;
+    static final int MEASURED_ROWS = 2000000;
+
+    com.sun.management.ThreadMXBean threadMXBean;
+
+    @Before
+    public void setUp() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testInt() throws Exception {
+        assertAllocation(PrimitiveObjectInspector.PrimitiveCategory.INT, TypeInfoFactory.intTypeInfo, 1.0, 1.0);
+    }
+
+    @Test
+    public void testBigint() throws Exception {
+        assertAllocation(PrimitiveObjectInspector.PrimitiveCategory.LONG, TypeInfoFactory.longTypeInfo, 1.0, 1.0);
+    }
+
+    @Test
+    public void testDouble() throws Exception {
+        assertAllocation(PrimitiveObjectInspector.PrimitiveCategory.DOUBLE, TypeInfoFactory.doubleTypeInfo, 1.0, 1.0);
+    }
+
+    @Test
+    public void testString() throws Exception {
+        assertAllocation(PrimitiveObjectInspector.PrimitiveCategory.STRING, TypeInfoFactory.stringTypeInfo, 1.0, 1.0);
+    }
+
+    @Test
+    public void testTimestamp() throws Exception {
+        assertAllocation(PrimitiveObjectInspector.PrimitiveCategory.TIMESTAMP, TypeInfoFactory.timestampTypeInfo,
+                1.0, 1.0);
+    }
+
+    /**
+     * Run first(val_col string, cmp_col, 'DESC') over ascending cmp_cols of the category.
+     */
+    private void assertAllocation(PrimitiveObjectInspector.PrimitiveCategory category, TypeInfo cmpType,
+                                  double iterateBudget, double mergeBudget) throws Exception {
+        TypeInfo[] types = {TypeInfoFactory.stringTypeInfo, cmpType, TypeInfoFactory.stringTypeInfo};
+        ObjectInspector[] inputOIs = {
+                PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(category),
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text("DESC"))};
+
+        Object[][] rows = new Object[DISTINCT_ROWS][];
+        for (int i = 0; i < DISTINCT_ROWS; i++) {
+            rows[i] = new Object[] {new Text(String.format("value-%08d", i)), makeValue(category, i), new Text("DESC")};
+        }
+
+        // iterate
+        GenericUDAFEvaluator evaluator = new FirstOrderedBy().getEvaluator(types);
+        ObjectInspector partialOI = evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+
+        iterate(evaluator, agg, rows, WARMUP_ROWS);
+        long allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        iterate(evaluator, agg, rows, MEASURED_ROWS);
+        allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        assertBudget(category + " iterate", allocated, iterateBudget);
+
+        // merge. partials are made once and copied, because terminatePartial() reuses its result
+        ObjectInspector standardPartialOI = ObjectInspectorUtils.getStandardObjectInspector(partialOI);
+        Object[] partials = new Object[DISTINCT_ROWS];
+        for (int i = 0; i < DISTINCT_ROWS; i++) {
+            evaluator.reset(agg);
+            evaluator.iterate(agg, rows[i]);
+            partials[i] = ObjectInspectorUtils.copyToStandardObject(evaluator.terminatePartial(agg), partialOI);
+        }
+
+        GenericUDAFEvaluator merger = new FirstOrderedBy().getEvaluator(types);
+        merger.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {standardPartialOI});
+        GenericUDAFEvaluator.AggregationBuffer mergeAgg = merger.getNewAggregationBuffer();
+
+        merge(merger, mergeAgg, partials, WARMUP_ROWS);
+        allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        merge(merger, mergeAgg, partials, MEASURED_ROWS);
+        allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        assertBudget(category + " merge", allocated, mergeBudget);
+
+        // sanity check that the rows were really aggregated
+        assertEquals(new Text(String.format("value-%08d", DISTINCT_ROWS - 1)), merger.terminate(mergeAgg));
+    }
+
+    private static void iterate(GenericUDAFEvaluator evaluator, GenericUDAFEvaluator.AggregationBuffer agg,
+                                Object[][] rows, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            int index = i % rows.length;
+            if (index == 0) {
+                evaluator.reset(agg);
+            }
+            evaluator.iterate(agg, rows[index]);
+        }
+    }
+
+    private static void merge(GenericUDAFEvaluator evaluator, GenericUDAFEvaluator.AggregationBuffer agg,
+                              Object[] partials, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            int index = i % partials.length;
+            if (index == 0) {
+                evaluator.reset(agg);
+            }
+            evaluator.merge(agg, partials[index]);
+        }
+    }
+
+    private static void assertBudget(String scenario, long allocated, double budget) {
+        double perRow = (double) allocated / MEASURED_ROWS;
+        assertTrue(String.format("%s allocated %.2f bytes per row, over the budget of %.2f", scenario, perRow, budget),
+                perRow <= budget);
+    }
+
+    private static Object makeValue(PrimitiveObjectInspector.PrimitiveCategory category, int i) {
+        switch (category) {
+            case INT:
+                return new IntWritable(i);
+            case LONG:
+                return new LongWritable(i);
+            case DOUBLE:
+                return new DoubleWritable(i);
+            case STRING:
+                // fixed width, so that the order of strings is the one of numbers
+                return new Text(String.format("%08d", i));
+            case TIMESTAMP:
+                return new TimestampWritable(new Timestamp(i * 1000L));
+            default:
+                throw new IllegalArgumentException("Unsupported category: " + category);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FirstOrderedByStateTest {
+    TypeInfo[] types;
+    ObjectInspector[] inputOIs;
+
+    Object[] param1 = {"a", 3, new Text("DESC")};
+    Object[] param2 = {"b", 5, new Text("DESC")};
+    Object[] param3 = {"c", 4, new Text("DESC")};
+    Object[] param4 = {"d", 1, new Text("DESC")};
+
+    @Before
+    public void setUp() throws Exception {
+        types = new TypeInfo[] {
+                TypeInfoFactory.stringTypeInfo,
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo};
+
+        inputOIs = new ObjectInspector[3];
+        inputOIs[0] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING);
+        inputOIs[1] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.INT);
+        inputOIs[2] = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text("DESC"));
+    }
+
+    @Test(expected = UDFArgumentTypeException.class)
+    public void testGetMergeEvaluatorWithNonBinaryState() throws Exception {
+        new FirstOrderedByMerge().getEvaluator(new TypeInfo[] {TypeInfoFactory.stringTypeInfo});
+    }
+
+    @Test
+    public void testMergeStates() throws Exception {
+        BytesWritable state1 = makeState(param1, param2);
+        BytesWritable state2 = makeState(param3, param4);
+
+        // states are merged into a state, which can be merged again
+        GenericUDAFEvaluator merger = new FirstOrderedByMerge().getEvaluator(
+                new TypeInfo[] {TypeInfoFactory.binaryTypeInfo});
+        merger.init(GenericUDAFEvaluator.Mode.COMPLETE,
+                new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+        GenericUDAFEvaluator.AggregationBuffer agg = merger.getNewAggregationBuffer();
+        merger.iterate(agg, new Object[] {state2});
+        merger.iterate(agg, new Object[] {state1});
+        assertEquals(state1, merger.terminate(agg));
+
+        // with value_hint, the first value is returned
+        GenericUDAFEvaluator finalizer = new FirstOrderedByMerge().getEvaluator(
+                new TypeInfo[] {TypeInfoFactory.binaryTypeInfo, TypeInfoFactory.stringTypeInfo});
+        ObjectInspector outputOI = finalizer.init(GenericUDAFEvaluator.Mode.COMPLETE, new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector});
+        agg = finalizer.getNewAggregationBuffer();
+        finalizer.iterate(agg, new Object[] {state1, null});
+        finalizer.iterate(agg, new Object[] {state2, null});
+        assertEquals("b", ObjectInspectorUtils.copyToStandardJavaObject(finalizer.terminate(agg), outputOI));
+    }
+
+    @Test(expected = HiveException.class)
+    public void testMergeWithMismatchedValueHint() throws Exception {
+        BytesWritable state = makeState(param1);
+
+        GenericUDAFEvaluator finalizer = new FirstOrderedByMerge().getEvaluator(
+                new TypeInfo[] {TypeInfoFactory.binaryTypeInfo, TypeInfoFactory.intTypeInfo});
+        finalizer.init(GenericUDAFEvaluator.Mode.COMPLETE, new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector});
+        finalizer.iterate(finalizer.getNewAggregationBuffer(), new Object[] {state, null});
+    }
+
+    private BytesWritable makeState(Object[]... rows) throws Exception {
+        GenericUDAFEvaluator evaluator = new FirstOrderedByState().getEvaluator(types);
+        evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg = evaluator.getNewAggregationBuffer();
+        for (Object[] row : rows) {
+            evaluator.iterate(agg, row);
+        }
+
+        // states are reused by the evaluator
+        BytesWritable state = (BytesWritable) evaluator.terminate(agg);
+        return new BytesWritable(state.copyBytes());
+    }
+}
@@ -0,0 +1,91 @@
+package in.chopl.hive.udaf;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FirstOrderedByStreamingEvaluatorTest {
+    ObjectInspector[] inputOIs;
+
+    // cmp_col for each row, ordered by ASC
+    int[] cmpCols = {5, 3, 4, 4, 9, 1, 2};
+
+    @Before
+    public void setUp() throws Exception {
+        inputOIs = new ObjectInspector[3];
+        inputOIs[0] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING);
+        inputOIs[1] = PrimitiveObjectInspectorFactory.getPrimitiveJavaObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.INT);
+        inputOIs[2] = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text("ASC"));
+    }
+
+    @Test
+    public void testPrecedingAndCurrentRow() throws Exception {
+        assertEquals(Arrays.asList("r0", "r1", "r1", "r1", "r2", "r5", "r5"), evaluate(2, 0));
+    }
+
+    @Test
+    public void testPrecedingAndFollowing() throws Exception {
+        assertEquals(Arrays.asList("r1", "r1", "r1", "r2", "r5", "r5", "r5"), evaluate(1, 1));
+    }
+
+    @Test
+    public void testUnboundedPreceding() throws Exception {
+        assertEquals(Arrays.asList("r0", "r1", "r1", "r1", "r1", "r5", "r5"),
+                evaluate(FirstOrderedByStreamingEvaluator.UNBOUNDED, 0));
+    }
+
+    @Test
+    public void testNullResult() throws Exception {
+        FirstOrderedByStreamingEvaluator streaming = (FirstOrderedByStreamingEvaluator)
+                new FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator().getWindowingEvaluator(0, 0);
+        streaming.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg = streaming.getNewAggregationBuffer();
+
+        // a null val_col is NULL_RESULT, because null means that no result is available yet
+        assertNull(streaming.getNextResult(agg));
+        streaming.iterate(agg, new Object[] {null, 1, new Text("ASC")});
+        assertSame(FirstOrderedByStreamingEvaluator.NULL_RESULT, streaming.getNextResult(agg));
+        assertNull(streaming.getNextResult(agg));
+    }
+
+    private List<String> evaluate(int numPreceding, int numFollowing) throws Exception {
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator evaluator =
+                new FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator();
+        FirstOrderedByStreamingEvaluator streaming =
+                (FirstOrderedByStreamingEvaluator) evaluator.getWindowingEvaluator(numPreceding, numFollowing);
+        streaming.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+        GenericUDAFEvaluator.AggregationBuffer agg = streaming.getNewAggregationBuffer();
+
+        List<String> results = new ArrayList<String>();
+        for (int i = 0; i < cmpCols.length; i++) {
+            streaming.iterate(agg, new Object[] {"r" + i, cmpCols[i], new Text("ASC")});
+            addResults(streaming, agg, results);
+        }
+        assertEquals(cmpCols.length - numFollowing, results.size());
+
+        streaming.terminate(agg);
+        addResults(streaming, agg, results);
+        return results;
+    }
+
+    private void addResults(FirstOrderedByStreamingEvaluator streaming, GenericUDAFEvaluator.AggregationBuffer agg,
+                            List<String> results) throws Exception {
+        Object result;
+        while ((result = streaming.getNextResult(agg)) != null) {
+            results.add(result.toString());
+        }
+    }
+}
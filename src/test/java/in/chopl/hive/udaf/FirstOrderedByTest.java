@@ -3,13 +3,20 @@ package in.chopl.hive.udaf;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.junit.After;
 import org.junit.Before;
@@ -18,6 +25,8 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
 
@@ -56,15 +65,7 @@ public class FirstOrderedByTest {
         inputOIs[4] =  PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
                 PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text(cmpColOrder2));
 
-        List<String> fieldNames = new ArrayList<String>(5);
-        fieldNames.add("val_col");
-        fieldNames.add("cmp_col1");
-        fieldNames.add("cmp_col_order1");
-        fieldNames.add("cmp_col2");
-        fieldNames.add("cmp_col_order2");
-
         partialOI = new ObjectInspector[1];
-        partialOI[0] = ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, Arrays.asList(inputOIs));
 
         agg = (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) evaluator.getNewAggregationBuffer();
     }
@@ -95,6 +96,30 @@ public class FirstOrderedByTest {
         firstOrderedBy.getEvaluator(types);
     }
 
+    @Test(expected = UDFArgumentLengthException.class)
+    public void testGetEvaluateorWithMissingCmpColOrder() throws Exception {
+        // first(v, a, 'ASC', b) of a string b is not read as cmp_col_bound1 of an int a
+        String[] typeStrs = {"string", "int", "string", "string"};
+        TypeInfo[] types = makePrimitiveTypeInfoArray(typeStrs);
+        firstOrderedBy.getEvaluator(types);
+    }
+
+    @Test(expected = UDFArgumentTypeException.class)
+    public void testInitWithBoundAndUnboundedCmpCol() throws Exception {
+        // first(v, a, 'ASC', b, 'DESC', 0) of a string b could never reach the bound
+        TypeInfo[] types = makePrimitiveTypeInfoArray(new String[] {"string", "int", "string", "string", "string", "int"});
+        ObjectInspector[] boundOIs = {
+                inputOIs[0],
+                inputOIs[1],
+                inputOIs[2],
+                inputOIs[0],
+                inputOIs[4],
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        PrimitiveObjectInspector.PrimitiveCategory.INT, new IntWritable(0))};
+
+        firstOrderedBy.getEvaluator(types).init(GenericUDAFEvaluator.Mode.PARTIAL1, boundOIs);
+    }
+
     @Test(expected = UDFArgumentTypeException.class)
     public void testGetEvaluateorWithMapAsCmpCol() throws Exception {
         TypeInfo[] types = new TypeInfo[3];
@@ -129,22 +154,21 @@ public class FirstOrderedByTest {
 
 
         evaluator.iterate(agg, param1);
-        assertArrayEquals(agg.objects, param1);
-        assertArrayEquals(agg.orders, orders);
+        assertArrayEquals(agg.objects, toWritables(param1));
 
         evaluator.iterate(agg, param2);
-        assertArrayEquals(agg.objects, param1);
+        assertArrayEquals(agg.objects, toWritables(param1));
 
         evaluator.iterate(agg, param3);
-        assertArrayEquals(agg.objects, param3);
+        assertArrayEquals(agg.objects, toWritables(param3));
 
         evaluator.iterate(agg, param4);
-        assertArrayEquals(agg.objects, param4);
+        assertArrayEquals(agg.objects, toWritables(param4));
     }
 
     @Test
     public void testTerminatePartial() throws Exception {
-        evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        StructObjectInspector soi = (StructObjectInspector) evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
         evaluator.reset(agg);
 
         evaluator.iterate(agg, param1);
@@ -155,46 +179,398 @@ public class FirstOrderedByTest {
         Object partial = evaluator.terminatePartial(agg);
 
         assertTrue(partial instanceof Object[]);
-        assertArrayEquals((Object[]) partial, param4);
+        Object[] partialObjects = (Object[]) partial;
+        assertEquals(4, partialObjects.length);
+        assertEquals(new Text((String) param4[0]), partialObjects[0]);
+        assertEquals(new BooleanWritable(false), partialObjects[2]);
+        assertNull(partialObjects[3]);
+
+        // cmp_cols are encoded into a binary, and their types and cmp_col_orders are in the type of cmp_types
+        BytesWritable cmpColumns = (BytesWritable) partialObjects[1];
+        CmpColumnsCodec codec = new CmpColumnsCodec(false);
+        codec.setSchema((StructObjectInspector)
+                soi.getStructFieldRef(FirstOrderedBy.COMPARED_TYPES).getFieldObjectInspector());
+        codec.decode(cmpColumns.getBytes(), 0, cmpColumns.getLength());
+        assertArrayEquals(orders, codec.getOrders());
+        assertArrayEquals(new Object[]{new IntWritable(0), new IntWritable(4)}, codec.getValues());
     }
 
     @Test
     public void testMerge() throws Exception {
-        evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg agg1 =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) evaluator.getNewAggregationBuffer();
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg agg2 =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) evaluator.getNewAggregationBuffer();
+
+        // the evaluator reuses its partial result, so copy each one before the next terminatePartial()
+        partialOI[0] = evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        evaluator.reset(agg1);
+        evaluator.iterate(agg1, param1);
+        evaluator.iterate(agg1, param2);
+        Object partial1 = ObjectInspectorUtils.copyToStandardObject(evaluator.terminatePartial(agg1), partialOI[0]);
+
+        evaluator.reset(agg2);
+        evaluator.iterate(agg2, param3);
+        evaluator.iterate(agg2, param4);
+        Object partial2 = ObjectInspectorUtils.copyToStandardObject(evaluator.terminatePartial(agg2), partialOI[0]);
+
+        evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL2, partialOI);
+        evaluator.reset(agg);
+
+        evaluator.merge(agg, partial1);
+        assertArrayEquals(agg.objects, toWritables(param1));
+
+        evaluator.merge(agg, partial2);
+        assertArrayEquals(agg.objects, toWritables(param4));
+    }
+
+    @Test
+    public void testTerminate() throws Exception {
+        evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
         evaluator.reset(agg);
+
         evaluator.iterate(agg, param1);
         evaluator.iterate(agg, param2);
-        Object partial1 = evaluator.terminatePartial(agg);
+        evaluator.iterate(agg, param3);
+        evaluator.iterate(agg, param4);
+        Object term = evaluator.terminate(agg);
+
+        assertTrue(term instanceof Text);
+        assertEquals(term, new Text((String) param4[0]));
+    }
 
+    @Test
+    public void testMetrics() throws Exception {
         evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
         evaluator.reset(agg);
+
+        evaluator.iterate(agg, param1);
+        evaluator.iterate(agg, param2);
         evaluator.iterate(agg, param3);
         evaluator.iterate(agg, param4);
-        Object partial2 = evaluator.terminatePartial(agg);
 
-        evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL2, partialOI);
+        FirstOrderedByMetrics metrics =
+                ((FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator) evaluator).getMetrics();
+        assertEquals(4, metrics.get(FirstOrderedByMetrics.Counter.ROWS_ITERATED));
+        assertEquals(2, metrics.get(FirstOrderedByMetrics.Counter.BUFFER_REPLACEMENTS));
+        assertEquals(0, metrics.get(FirstOrderedByMetrics.Counter.MERGES));
+        assertTrue(metrics.get(FirstOrderedByMetrics.Counter.BYTES_COPIED) > 0);
+    }
+
+    @Test
+    public void testIterateReusesBuffer() throws Exception {
+        evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
         evaluator.reset(agg);
 
-        evaluator.merge(agg, partial1);
-        assertArrayEquals(agg.objects, param1);
+        evaluator.iterate(agg, param1);
+        Object[] objects = agg.objects;
+        Object cmpCol = agg.objects[1];
 
-        evaluator.merge(agg, partial2);
-        assertArrayEquals(agg.objects, param4);
+        evaluator.iterate(agg, param3);
+        assertSame(objects, agg.objects);
+        assertSame(cmpCol, agg.objects[1]);
+
+        evaluator.reset(agg);
+        evaluator.iterate(agg, param2);
+        assertSame(objects, agg.objects);
+        assertArrayEquals(agg.objects, toWritables(param2));
     }
 
     @Test
-    public void testTerminate() throws Exception {
+    public void testPresorted() throws Exception {
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator presortedEvaluator =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator) evaluator;
+        presortedEvaluator.setPresorted(true);
+        evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
+        evaluator.reset(agg);
+
+        Object[] row1 = {"a", 1, new Text(cmpColOrder1), 1, new Text(cmpColOrder2)};
+        Object[] row2 = {"b", 0, new Text(cmpColOrder1), 1, new Text(cmpColOrder2)};
+
+        // later rows are not compared, so the first row wins
+        evaluator.iterate(agg, row1);
+        evaluator.iterate(agg, row2);
+        assertEquals(new Text("a"), evaluator.terminate(agg));
+        assertEquals(0, presortedEvaluator.getMetrics().get(FirstOrderedByMetrics.Counter.BUFFER_REPLACEMENTS));
+    }
+
+    @Test(expected = HiveException.class)
+    public void testPresortedCheck() throws Exception {
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator presortedEvaluator =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator) evaluator;
+        presortedEvaluator.setPresorted(true);
+        presortedEvaluator.setPresortedCheckInterval(1);
         evaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, inputOIs);
         evaluator.reset(agg);
 
         evaluator.iterate(agg, param1);
         evaluator.iterate(agg, param2);
+        // param3 comes before param1
         evaluator.iterate(agg, param3);
-        evaluator.iterate(agg, param4);
-        Object term = evaluator.terminate(agg);
+    }
+
+    @Test
+    public void testStructValue() throws Exception {
+        TypeInfo[] types = {
+                TypeInfoUtils.getTypeInfoFromTypeString("struct<a:string,b:int>"),
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo};
+        GenericUDAFEvaluator structEvaluator = firstOrderedBy.getEvaluator(types);
+
+        ObjectInspector[] structOIs = {
+                ObjectInspectorFactory.getStandardStructObjectInspector(
+                        Arrays.asList("a", "b"),
+                        Arrays.<ObjectInspector>asList(
+                                PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                                PrimitiveObjectInspectorFactory.javaIntObjectInspector)),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text("DESC"))};
+        Object[] row1 = {Arrays.asList("a", 1), 1, new Text("DESC")};
+        Object[] row2 = {Arrays.asList("b", null), 3, new Text("DESC")};
+        Object[] row3 = {Arrays.asList("c", 3), 2, new Text("DESC")};
+
+        partialOI[0] = structEvaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, structOIs);
+        GenericUDAFEvaluator.AggregationBuffer partialAgg = structEvaluator.getNewAggregationBuffer();
+        structEvaluator.iterate(partialAgg, row1);
+        Object holder = ((FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) partialAgg).objects[0];
+        structEvaluator.iterate(partialAgg, row2);
+        structEvaluator.iterate(partialAgg, row3);
+        // fields of the winner are copied into the same holder
+        assertSame(holder, ((FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) partialAgg).objects[0]);
+        Object partial = structEvaluator.terminatePartial(partialAgg);
+
+        GenericUDAFEvaluator merger = firstOrderedBy.getEvaluator(types);
+        StructObjectInspector outputOI =
+                (StructObjectInspector) merger.init(GenericUDAFEvaluator.Mode.FINAL, partialOI);
+        GenericUDAFEvaluator.AggregationBuffer finalAgg = merger.getNewAggregationBuffer();
+        merger.merge(finalAgg, partial);
+
+        Object result = merger.terminate(finalAgg);
+        assertEquals(Arrays.<Object>asList(new Text("b"), null), outputOI.getStructFieldsDataAsList(result));
+    }
+
+    @Test
+    public void testSerializedValue() throws Exception {
+        TypeInfo[] types = {
+                TypeInfoUtils.getTypeInfoFromTypeString("array<int>"),
+                TypeInfoFactory.intTypeInfo,
+                TypeInfoFactory.stringTypeInfo};
+        GenericUDAFEvaluator listEvaluator = firstOrderedBy.getEvaluator(types);
+
+        ObjectInspector[] listOIs = {
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaIntObjectInspector),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text("ASC"))};
+        Object[] row1 = {Arrays.asList(1, 2, 3, 4), 2, new Text("ASC")};
+        Object[] row2 = {Arrays.asList(5, 6), 1, new Text("ASC")};
+
+        partialOI[0] = listEvaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, listOIs);
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg listAgg =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) listEvaluator.getNewAggregationBuffer();
+        listEvaluator.iterate(listAgg, row1);
+        byte[] valueBytes = listAgg.valueBytes;
+        listEvaluator.iterate(listAgg, row2);
+        // the winner is serialized into the same bytes, not copied as a standard object
+        assertNull(listAgg.objects[0]);
+        assertSame(valueBytes, listAgg.valueBytes);
+        Object partial = listEvaluator.terminatePartial(listAgg);
+
+        GenericUDAFEvaluator merger = firstOrderedBy.getEvaluator(types);
+        ObjectInspector outputOI = merger.init(GenericUDAFEvaluator.Mode.FINAL, partialOI);
+        GenericUDAFEvaluator.AggregationBuffer finalAgg = merger.getNewAggregationBuffer();
+        merger.merge(finalAgg, partial);
+        assertEquals(Arrays.asList(5, 6),
+                ObjectInspectorUtils.copyToStandardJavaObject(merger.terminate(finalAgg), outputOI));
+    }
+
+    @Test
+    public void testMergeAll() throws Exception {
+        partialOI[0] = evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+
+        // cmp_cols have few distinct values, so ties are resolved by the order of partials
+        Random random = new Random(42);
+        List<Object> partials = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            Object[] row = {"v" + i, random.nextInt(5), new Text(cmpColOrder1), random.nextInt(5), new Text(cmpColOrder2)};
+            evaluator.reset(agg);
+            evaluator.iterate(agg, row);
+            partials.add(ObjectInspectorUtils.copyToStandardObject(evaluator.terminatePartial(agg), partialOI[0]));
+        }
+
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator merger =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator) firstOrderedBy.getEvaluator(
+                        makePrimitiveTypeInfoArray(new String[] {"string", "int", "string", "int", "string"}));
+        merger.init(GenericUDAFEvaluator.Mode.FINAL,
+                new ObjectInspector[] {ObjectInspectorUtils.getStandardObjectInspector(partialOI[0])});
+
+        GenericUDAFEvaluator.AggregationBuffer sequential = merger.getNewAggregationBuffer();
+        for (Object partial : partials) {
+            merger.merge(sequential, partial);
+        }
+        Object expected = ObjectInspectorUtils.copyToStandardJavaObject(merger.terminate(sequential),
+                PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            GenericUDAFEvaluator.AggregationBuffer parallel = merger.getNewAggregationBuffer();
+            merger.mergeAll(parallel, partials, pool);
+            assertEquals(expected, ObjectInspectorUtils.copyToStandardJavaObject(merger.terminate(parallel),
+                    PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+            // counts of the merging tasks are added after they are joined, so none is lost
+            assertEquals(2000, merger.getMetrics().get(FirstOrderedByMetrics.Counter.MERGES));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testNormalizedKeys() throws Exception {
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator keyEvaluator =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator) evaluator;
+        keyEvaluator.setNormalizedKeys(true);
+
+        Object[] row1 = {"a", 1, new Text(cmpColOrder1), 1, new Text(cmpColOrder2)};
+        Object[] row2 = {"b", 0, new Text(cmpColOrder1), 1, new Text(cmpColOrder2)};
+        Object[] row3 = {"c", 0, new Text(cmpColOrder1), 4, new Text(cmpColOrder2)};
+        Object[] row4 = {"d", 0, new Text(cmpColOrder1), null, new Text(cmpColOrder2)};
+
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg agg1 =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) evaluator.getNewAggregationBuffer();
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg agg2 =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) evaluator.getNewAggregationBuffer();
+
+        partialOI[0] = evaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, inputOIs);
+        evaluator.reset(agg1);
+        evaluator.iterate(agg1, row1);
+        evaluator.iterate(agg1, row4);
+        Object partial1 = ObjectInspectorUtils.copyToStandardObject(evaluator.terminatePartial(agg1), partialOI[0]);
+
+        evaluator.reset(agg2);
+        evaluator.iterate(agg2, row3);
+        evaluator.iterate(agg2, row2);
+        Object partial2 = ObjectInspectorUtils.copyToStandardObject(evaluator.terminatePartial(agg2), partialOI[0]);
+
+        evaluator.init(GenericUDAFEvaluator.Mode.FINAL, partialOI);
+        evaluator.reset(agg);
+        evaluator.merge(agg, partial1);
+        assertEquals(new Text("d"), evaluator.terminate(agg));
+
+        // null is the smallest, so it comes last in DESC
+        evaluator.merge(agg, partial2);
+        assertEquals(new Text("c"), evaluator.terminate(agg));
+    }
+
+    @Test
+    public void testIterateOrdersStringsAsUtf8() throws Exception {
+        // U+FF5E comes before U+1F600 in UTF-8, but after its surrogate pair in UTF-16
+        TypeInfo[] types = makePrimitiveTypeInfoArray(new String[] {"string", "string", "string"});
+        ObjectInspector[] stringOIs = {inputOIs[0], inputOIs[0], inputOIs[2]};
+        GenericUDAFEvaluator stringEvaluator = firstOrderedBy.getEvaluator(types);
+        stringEvaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, stringOIs);
+        GenericUDAFEvaluator.AggregationBuffer stringAgg = stringEvaluator.getNewAggregationBuffer();
+
+        stringEvaluator.iterate(stringAgg, new Object[] {"a", "\uFF5E", new Text(cmpColOrder1)});
+        stringEvaluator.iterate(stringAgg, new Object[] {"b", "\uD83D\uDE00", new Text(cmpColOrder1)});
+        assertEquals(new Text("a"), stringEvaluator.terminate(stringAgg));
+    }
+
+    @Test
+    public void testBound() throws Exception {
+        // first(val_col, cmp_col, 'ASC', 0)
+        TypeInfo[] types = makePrimitiveTypeInfoArray(new String[] {"string", "int", "string", "int"});
+        ObjectInspector[] boundOIs = {
+                inputOIs[0],
+                inputOIs[1],
+                inputOIs[2],
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        PrimitiveObjectInspector.PrimitiveCategory.INT, new IntWritable(0))};
+        Object[] row1 = {"a", 3, new Text(cmpColOrder1), null};
+        Object[] row2 = {"b", 0, new Text(cmpColOrder1), null};
+        Object[] row3 = {"c", -1, new Text(cmpColOrder1), null};
+
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator boundEvaluator =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator) firstOrderedBy.getEvaluator(types);
+        partialOI[0] = boundEvaluator.init(GenericUDAFEvaluator.Mode.PARTIAL1, boundOIs);
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg agg1 =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) boundEvaluator.getNewAggregationBuffer();
+        boundEvaluator.iterate(agg1, row1);
+        assertFalse(agg1.atBound);
+        boundEvaluator.iterate(agg1, row2);
+        assertTrue(agg1.atBound);
+
+        // the bound is trusted, so a row beyond it is skipped without comparison
+        boundEvaluator.iterate(agg1, row3);
+        assertEquals(1, boundEvaluator.getMetrics().get(FirstOrderedByMetrics.Counter.ROWS_SKIPPED_AT_BOUND));
+        Object[] partial = (Object[]) boundEvaluator.terminatePartial(agg1);
+        assertEquals(new BooleanWritable(true), partial[2]);
+        // the evaluator reuses its partial result, so copy it before the next terminatePartial()
+        Object partial1 = ObjectInspectorUtils.copyToStandardObject(partial, partialOI[0]);
+
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg agg2 =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) boundEvaluator.getNewAggregationBuffer();
+        boundEvaluator.iterate(agg2, row1);
+        Object partial2 = ObjectInspectorUtils.copyToStandardObject(boundEvaluator.terminatePartial(agg2), partialOI[0]);
+
+        // a partial at the bound replaces the buffer, and later partials are skipped
+        GenericUDAFEvaluator merger = firstOrderedBy.getEvaluator(types);
+        merger.init(GenericUDAFEvaluator.Mode.FINAL, partialOI);
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg finalAgg =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) merger.getNewAggregationBuffer();
+        merger.merge(finalAgg, partial2);
+        merger.merge(finalAgg, partial1);
+        assertTrue(finalAgg.atBound);
+        merger.merge(finalAgg, partial2);
+        assertEquals(new Text("b"), merger.terminate(finalAgg));
+    }
+
+    @Test
+    public void testBoundOfBoolean() throws Exception {
+        // true is the maximum of booleans, so nothing comes before it in DESC
+        TypeInfo[] types = makePrimitiveTypeInfoArray(new String[] {"string", "boolean", "string"});
+        ObjectInspector[] booleanOIs = {
+                inputOIs[0],
+                PrimitiveObjectInspectorFactory.javaBooleanObjectInspector,
+                PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                        PrimitiveObjectInspector.PrimitiveCategory.STRING, new Text(cmpColOrder2))};
+
+        GenericUDAFEvaluator booleanEvaluator = firstOrderedBy.getEvaluator(types);
+        booleanEvaluator.init(GenericUDAFEvaluator.Mode.COMPLETE, booleanOIs);
+        FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg booleanAgg =
+                (FirstOrderedBy.GenericUDAFFirstOrderedByEvaluator.FirstAgg) booleanEvaluator.getNewAggregationBuffer();
+
+        booleanEvaluator.iterate(booleanAgg, new Object[] {"a", false, new Text(cmpColOrder2)});
+        assertFalse(booleanAgg.atBound);
+        booleanEvaluator.iterate(booleanAgg, new Object[] {"b", true, new Text(cmpColOrder2)});
+        assertTrue(booleanAgg.atBound);
+        booleanEvaluator.iterate(booleanAgg, new Object[] {"c", true, new Text(cmpColOrder2)});
+        assertEquals(new Text("b"), booleanEvaluator.terminate(booleanAgg));
+
+        booleanEvaluator.reset(booleanAgg);
+        assertFalse(booleanAgg.atBound);
+    }
+
+    private Object[] toWritables(Object[] objects) {
+        int len = objects.length;
+        Object[] ret = new Object[len];
+
+        for (int i = 0; i < len; i++) {
+            Object o = objects[i];
+            if (i > 0 && i % 2 == 0) {
+                // cmp_col_orders are not buffered
+                ret[i] = null;
+            } else if (o instanceof String) {
+                ret[i] = new Text((String) o);
+            } else if (o instanceof Integer) {
+                ret[i] = new IntWritable((Integer) o);
+            } else {
+                ret[i] = o;
+            }
+        }
 
-        assertTrue(term instanceof String);
-        assertEquals(term, param4[0]);
+        return ret;
     }
 
     private TypeInfo[] makePrimitiveTypeInfoArray(String[] typeStrs) {
@@ -0,0 +1,241 @@
+package in.chopl.hive.udaf.vector;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.Serializable;
+
+/**
+ * Compares a cmp_col over rows of a batch, and with the value buffered in a VectorFirstOrderedBy.Aggregation.
+ *
+ * The results follow the contract of ColumnComparator in the row mode:
+ * &gt; 0 when the buffered (or the best so far) value comes first in the specified order,
+ * and nulls are treated as the smallest value.
+ */
+abstract class VectorColumnComparator implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // -1 for ASC, 1 for DESC
+    final int sign;
+    // index of the column in batches
+    final int column;
+    // index of the cmp_col in buffers
+    final int slot;
+
+    VectorColumnComparator(int column, int slot, boolean descending) {
+        this.sign = descending ? 1 : -1;
+        this.column = column;
+        this.slot = slot;
+    }
+
+    /**
+     * Compare the best row so far with a row of the same batch.
+     */
+    final int compareRows(VectorizedRowBatch batch, int best, int row) {
+        ColumnVector cv = batch.cols[column];
+        if (cv.isRepeating) {
+            return 0;
+        }
+        boolean bestNull = !cv.noNulls && cv.isNull[best];
+        boolean rowNull = !cv.noNulls && cv.isNull[row];
+        if (bestNull) {
+            return rowNull ? 0 : -sign;
+        }
+        if (rowNull) {
+            return sign;
+        }
+        return sign * compareNonNullRows(cv, best, row);
+    }
+
+    /**
+     * Compare the buffered value with a row.
+     */
+    final int compareToBuffer(VectorFirstOrderedBy.Aggregation agg, VectorizedRowBatch batch, int row) {
+        ColumnVector cv = batch.cols[column];
+        int i = cv.isRepeating ? 0 : row;
+        boolean rowNull = !cv.noNulls && cv.isNull[i];
+        if (agg.cmpNulls[slot]) {
+            return rowNull ? 0 : -sign;
+        }
+        if (rowNull) {
+            return sign;
+        }
+        return sign * compareNonNullToBuffer(agg, cv, i);
+    }
+
+    final void copy(VectorFirstOrderedBy.Aggregation agg, VectorizedRowBatch batch, int row) {
+        ColumnVector cv = batch.cols[column];
+        int i = cv.isRepeating ? 0 : row;
+        agg.cmpNulls[slot] = !cv.noNulls && cv.isNull[i];
+        if (!agg.cmpNulls[slot]) {
+            copyNonNull(agg, cv, i);
+        }
+    }
+
+    /**
+     * Select the first row of a batch by this cmp_col only. Ties keep the earlier row.
+     * Subclasses loop over primitive vectors when there are no nulls.
+     */
+    int selectBest(VectorizedRowBatch batch) {
+        int best = rowAt(batch, 0);
+        for (int j = 1; j < batch.size; j++) {
+            int row = rowAt(batch, j);
+            if (compareRows(batch, best, row) < 0) {
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    static int rowAt(VectorizedRowBatch batch, int j) {
+        return batch.selectedInUse ? batch.selected[j] : j;
+    }
+
+    abstract int compareNonNullRows(ColumnVector cv, int best, int row);
+
+    abstract int compareNonNullToBuffer(VectorFirstOrderedBy.Aggregation agg, ColumnVector cv, int i);
+
+    abstract void copyNonNull(VectorFirstOrderedBy.Aggregation agg, ColumnVector cv, int i);
+
+    static VectorColumnComparator create(PrimitiveObjectInspector.PrimitiveCategory category, int column, int slot,
+                                         boolean descending) throws HiveException {
+        switch (category) {
+            case BOOLEAN:
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case TIMESTAMP:
+                return new LongComparator(column, slot, descending);
+            case FLOAT:
+            case DOUBLE:
+                return new DoubleComparator(column, slot, descending);
+            case STRING:
+            case BINARY:
+                return new BytesComparator(column, slot, descending);
+            default:
+                throw new HiveException("Unsupported type of cmp_col in the vectorized mode: " + category);
+        }
+    }
+
+    /**
+     * For boolean, tinyint, smallint, int, bigint and timestamp.
+     */
+    static class LongComparator extends VectorColumnComparator {
+        LongComparator(int column, int slot, boolean descending) {
+            super(column, slot, descending);
+        }
+
+        @Override
+        int selectBest(VectorizedRowBatch batch) {
+            LongColumnVector cv = (LongColumnVector) batch.cols[column];
+            if (cv.isRepeating || !cv.noNulls) {
+                return super.selectBest(batch);
+            }
+
+            long[] vector = cv.vector;
+            int best = rowAt(batch, 0);
+            long bestValue = vector[best];
+            if (batch.selectedInUse) {
+                int[] selected = batch.selected;
+                for (int j = 1; j < batch.size; j++) {
+                    int row = selected[j];
+                    if (sign > 0 ? vector[row] > bestValue : vector[row] < bestValue) {
+                        best = row;
+                        bestValue = vector[row];
+                    }
+                }
+            } else {
+                for (int row = 1; row < batch.size; row++) {
+                    if (sign > 0 ? vector[row] > bestValue : vector[row] < bestValue) {
+                        best = row;
+                        bestValue = vector[row];
+                    }
+                }
+            }
+            return best;
+        }
+
+        @Override
+        int compareNonNullRows(ColumnVector cv, int best, int row) {
+            long[] vector = ((LongColumnVector) cv).vector;
+            return compare(vector[best], vector[row]);
+        }
+
+        @Override
+        int compareNonNullToBuffer(VectorFirstOrderedBy.Aggregation agg, ColumnVector cv, int i) {
+            return compare(agg.cmpLongs[slot], ((LongColumnVector) cv).vector[i]);
+        }
+
+        @Override
+        void copyNonNull(VectorFirstOrderedBy.Aggregation agg, ColumnVector cv, int i) {
+            agg.cmpLongs[slot] = ((LongColumnVector) cv).vector[i];
+        }
+
+        private static int compare(long a, long b) {
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+
+    /**
+     * For float and double.
+     */
+    static class DoubleComparator extends VectorColumnComparator {
+        DoubleComparator(int column, int slot, boolean descending) {
+            super(column, slot, descending);
+        }
+
+        @Override
+        int compareNonNullRows(ColumnVector cv, int best, int row) {
+            double[] vector = ((DoubleColumnVector) cv).vector;
+            return Double.compare(vector[best], vector[row]);
+        }
+
+        @Override
+        int compareNonNullToBuffer(VectorFirstOrderedBy.Aggregation agg, ColumnVector cv, int i) {
+            return Double.compare(agg.cmpDoubles[slot], ((DoubleColumnVector) cv).vector[i]);
+        }
+
+        @Override
+        void copyNonNull(VectorFirstOrderedBy.Aggregation agg, ColumnVector cv, int i) {
+            agg.cmpDoubles[slot] = ((DoubleColumnVector) cv).vector[i];
+        }
+    }
+
+    /**
+     * For string and binary. Bytes are compared as unsigned, as Text does.
+     */
+    static class BytesComparator extends VectorColumnComparator {
+        BytesComparator(int column, int slot, boolean descending) {
+            super(column, slot, descending);
+        }
+
+        @Override
+        int compareNonNullRows(ColumnVector cv, int best, int row) {
+            BytesColumnVector bcv = (BytesColumnVector) cv;
+            return WritableComparator.compareBytes(bcv.vector[best], bcv.start[best], bcv.length[best],
+                    bcv.vector[row], bcv.start[row], bcv.length[row]);
+        }
+
+        @Override
+        int compareNonNullToBuffer(VectorFirstOrderedBy.Aggregation agg, ColumnVector cv, int i) {
+            BytesColumnVector bcv = (BytesColumnVector) cv;
+            return WritableComparator.compareBytes(agg.cmpBytes[slot], 0, agg.cmpLengths[slot],
+                    bcv.vector[i], bcv.start[i], bcv.length[i]);
+        }
+
+        @Override
+        void copyNonNull(VectorFirstOrderedBy.Aggregation agg, ColumnVector cv, int i) {
+            BytesColumnVector bcv = (BytesColumnVector) cv;
+            agg.cmpBytes[slot] = VectorFirstOrderedBy.copyBytes(agg.cmpBytes[slot],
+                    bcv.vector[i], bcv.start[i], bcv.length[i]);
+            agg.cmpLengths[slot] = bcv.length[i];
+        }
+    }
+}
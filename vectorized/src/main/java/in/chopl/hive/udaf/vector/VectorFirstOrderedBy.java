@@ -0,0 +1,362 @@
+package in.chopl.hive.udaf.vector;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampUtils;
+import org.apache.hadoop.hive.ql.exec.vector.VectorAggregationBufferRow;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.io.TimestampWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+import java.sql.Timestamp;
+
+/**
+ * Vectorized first(val_col, cmp_col1, cmp_col_order1, ...) over VectorizedRowBatch, for Hive 0.13 and later.
+ *
+ * Without GROUP BY, the best row of a batch is selected by a loop over the column vectors of cmp_cols,
+ * and is compared with the buffered one. So val_col is copied at most once per batch.
+ * With GROUP BY, each row is compared with the buffer of its group.
+ * As the row mode, nulls are treated as the smallest value, and ties keep the earlier row.
+ *
+ * val_col and cmp_cols must be primitive types which are vectorized: boolean, tinyint, smallint, int, bigint,
+ * float, double, string and timestamp.
+ *
+ * Only the COMPLETE mode is supported, where the whole aggregation of a group runs in this expression.
+ * The output is the final val_col, not the partial struct of val_col, cmp_cols and at_bound which
+ * FirstOrderedBy merges. A map-side hash aggregation would lose the cmp_cols that reducers need
+ * to pick the winner across mappers, so init() rejects the other modes.
+ */
+public class VectorFirstOrderedBy extends VectorAggregateExpression {
+    private static final long serialVersionUID = 1L;
+
+    private final VectorExpression valueExpression;
+    private final VectorExpression[] cmpExpressions;
+    private final PrimitiveObjectInspector.PrimitiveCategory valueCategory;
+    private final VectorColumnComparator[] comparators;
+    private final boolean variableSize;
+
+    private transient ObjectInspector outputOI;
+    private transient Object result;
+    private transient Timestamp timestamp;
+
+    /**
+     * A buffer of a group. Values of cmp_cols are kept in the arrays of their vector types.
+     */
+    static class Aggregation implements AggregationBuffer {
+        private static final long serialVersionUID = 1L;
+
+        boolean empty = true;
+
+        final boolean[] cmpNulls;
+        final long[] cmpLongs;
+        final double[] cmpDoubles;
+        final byte[][] cmpBytes;
+        final int[] cmpLengths;
+
+        boolean valueNull;
+        long valueLong;
+        double valueDouble;
+        byte[] valueBytes;
+        int valueLength;
+
+        Aggregation(int cmpColumns) {
+            cmpNulls = new boolean[cmpColumns];
+            cmpLongs = new long[cmpColumns];
+            cmpDoubles = new double[cmpColumns];
+            cmpBytes = new byte[cmpColumns][];
+            cmpLengths = new int[cmpColumns];
+        }
+
+        @Override
+        public int getVariableSize() {
+            int size = valueBytes == null ? 0 : valueBytes.length;
+            for (byte[] bytes : cmpBytes) {
+                if (bytes != null) {
+                    size += bytes.length;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public void reset() {
+            // byte arrays are reused by the next group
+            empty = true;
+        }
+    }
+
+    /**
+     * @param valueExpression
+     *          expression of val_col
+     * @param valueType
+     *          Hive type name of val_col
+     * @param cmpExpressions
+     *          expressions of cmp_cols
+     * @param cmpTypes
+     *          Hive type names of cmp_cols
+     * @param orders
+     *          ASC or DESC for each cmp_col
+     */
+    public VectorFirstOrderedBy(VectorExpression valueExpression, String valueType,
+                                VectorExpression[] cmpExpressions, String[] cmpTypes, String[] orders)
+            throws HiveException {
+        if (cmpExpressions.length == 0 || cmpExpressions.length != cmpTypes.length ||
+            cmpExpressions.length != orders.length) {
+            throw new HiveException("A number of cmp_col, its type and cmp_col_order are mismatched");
+        }
+
+        this.valueExpression = valueExpression;
+        this.cmpExpressions = cmpExpressions;
+        this.valueCategory = categoryOf(valueType);
+
+        boolean variable = isBytes(valueCategory);
+        comparators = new VectorColumnComparator[cmpExpressions.length];
+        for (int i = 0; i < cmpExpressions.length; i++) {
+            String order = orders[i].toUpperCase();
+            if (!order.equals("ASC") && !order.equals("DESC")) {
+                throw new HiveException(orders[i] + " is invalid for cmp_col_order");
+            }
+            PrimitiveObjectInspector.PrimitiveCategory category = categoryOf(cmpTypes[i]);
+            comparators[i] = VectorColumnComparator.create(
+                    category, cmpExpressions[i].getOutputColumn(), i, order.equals("DESC"));
+            variable |= isBytes(category);
+        }
+        this.variableSize = variable;
+
+        initOutput();
+    }
+
+    private static PrimitiveObjectInspector.PrimitiveCategory categoryOf(String typeName) throws HiveException {
+        TypeInfo typeInfo = TypeInfoUtils.getTypeInfoFromTypeString(typeName);
+        if (typeInfo.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            throw new HiveException("Only primitive types are supported in the vectorized mode: " + typeName);
+        }
+        return ((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory();
+    }
+
+    private static boolean isBytes(PrimitiveObjectInspector.PrimitiveCategory category) {
+        return category == PrimitiveObjectInspector.PrimitiveCategory.STRING ||
+               category == PrimitiveObjectInspector.PrimitiveCategory.BINARY;
+    }
+
+    private void initOutput() throws HiveException {
+        outputOI = PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(valueCategory);
+        switch (valueCategory) {
+            case BOOLEAN: result = new BooleanWritable(); break;
+            case BYTE: result = new ByteWritable(); break;
+            case SHORT: result = new ShortWritable(); break;
+            case INT: result = new IntWritable(); break;
+            case LONG: result = new LongWritable(); break;
+            case FLOAT: result = new FloatWritable(); break;
+            case DOUBLE: result = new DoubleWritable(); break;
+            case STRING: result = new Text(); break;
+            case BINARY: result = new BytesWritable(); break;
+            case TIMESTAMP:
+                timestamp = new Timestamp(0);
+                result = new TimestampWritable(timestamp);
+                break;
+            default:
+                throw new HiveException("Unsupported type of val_col in the vectorized mode: " + valueCategory);
+        }
+    }
+
+    @Override
+    public void init(AggregationDesc desc) throws HiveException {
+        if (desc.getMode() != GenericUDAFEvaluator.Mode.COMPLETE) {
+            throw new HiveException("Only COMPLETE mode is supported in the vectorized mode, but " +
+                    desc.getMode() + " was passed");
+        }
+
+        // types are given to the constructor. only the transient state is rebuilt after deserialization
+        if (outputOI == null) {
+            initOutput();
+        }
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+        return new Aggregation(comparators.length);
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+        agg.reset();
+    }
+
+    @Override
+    public void aggregateInput(AggregationBuffer agg, VectorizedRowBatch batch) throws HiveException {
+        if (batch.size == 0) {
+            return;
+        }
+        evaluateChildren(batch);
+
+        int best = comparators.length == 1 ? comparators[0].selectBest(batch) : selectBest(batch);
+        aggregate((Aggregation) agg, batch, best);
+    }
+
+    @Override
+    public void aggregateInputSelection(VectorAggregationBufferRow[] aggregationBufferSets, int aggregateIndex,
+                                        VectorizedRowBatch batch) throws HiveException {
+        if (batch.size == 0) {
+            return;
+        }
+        evaluateChildren(batch);
+
+        for (int j = 0; j < batch.size; j++) {
+            Aggregation agg = (Aggregation) aggregationBufferSets[j].getAggregationBuffer(aggregateIndex);
+            aggregate(agg, batch, VectorColumnComparator.rowAt(batch, j));
+        }
+    }
+
+    private void evaluateChildren(VectorizedRowBatch batch) {
+        valueExpression.evaluate(batch);
+        for (VectorExpression expression : cmpExpressions) {
+            expression.evaluate(batch);
+        }
+    }
+
+    /**
+     * Select the first row of a batch by all cmp_cols. Ties keep the earlier row.
+     */
+    private int selectBest(VectorizedRowBatch batch) {
+        int best = VectorColumnComparator.rowAt(batch, 0);
+        for (int j = 1; j < batch.size; j++) {
+            int row = VectorColumnComparator.rowAt(batch, j);
+            for (VectorColumnComparator comparator : comparators) {
+                int cmp = comparator.compareRows(batch, best, row);
+                if (cmp < 0) {
+                    best = row;
+                }
+                if (cmp != 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void aggregate(Aggregation agg, VectorizedRowBatch batch, int row) {
+        // the buffered row is kept unless the row is strictly better
+        if (!agg.empty && compareToBuffer(agg, batch, row) >= 0) {
+            return;
+        }
+
+        for (VectorColumnComparator comparator : comparators) {
+            comparator.copy(agg, batch, row);
+        }
+        copyValue(agg, batch.cols[valueExpression.getOutputColumn()], row);
+        agg.empty = false;
+    }
+
+    /**
+     * The return value is the same as FirstAgg.compareTo() in the row mode.
+     */
+    private int compareToBuffer(Aggregation agg, VectorizedRowBatch batch, int row) {
+        for (VectorColumnComparator comparator : comparators) {
+            int cmp = comparator.compareToBuffer(agg, batch, row);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private void copyValue(Aggregation agg, ColumnVector cv, int row) {
+        int i = cv.isRepeating ? 0 : row;
+        agg.valueNull = !cv.noNulls && cv.isNull[i];
+        if (agg.valueNull) {
+            return;
+        }
+
+        if (cv instanceof LongColumnVector) {
+            agg.valueLong = ((LongColumnVector) cv).vector[i];
+        } else if (cv instanceof DoubleColumnVector) {
+            agg.valueDouble = ((DoubleColumnVector) cv).vector[i];
+        } else {
+            BytesColumnVector bcv = (BytesColumnVector) cv;
+            agg.valueBytes = copyBytes(agg.valueBytes, bcv.vector[i], bcv.start[i], bcv.length[i]);
+            agg.valueLength = bcv.length[i];
+        }
+    }
+
+    /**
+     * Copy bytes into dest, which is reused while its capacity is enough.
+     */
+    static byte[] copyBytes(byte[] dest, byte[] src, int start, int length) {
+        if (dest == null || dest.length < length) {
+            dest = new byte[length];
+        }
+        System.arraycopy(src, start, dest, 0, length);
+        return dest;
+    }
+
+    @Override
+    public Object evaluateOutput(AggregationBuffer agg) throws HiveException {
+        Aggregation fagg = (Aggregation) agg;
+        if (fagg.empty || fagg.valueNull) {
+            return null;
+        }
+
+        switch (valueCategory) {
+            case BOOLEAN: ((BooleanWritable) result).set(fagg.valueLong != 0); break;
+            case BYTE: ((ByteWritable) result).set((byte) fagg.valueLong); break;
+            case SHORT: ((ShortWritable) result).set((short) fagg.valueLong); break;
+            case INT: ((IntWritable) result).set((int) fagg.valueLong); break;
+            case LONG: ((LongWritable) result).set(fagg.valueLong); break;
+            case FLOAT: ((FloatWritable) result).set((float) fagg.valueDouble); break;
+            case DOUBLE: ((DoubleWritable) result).set(fagg.valueDouble); break;
+            case STRING: ((Text) result).set(fagg.valueBytes, 0, fagg.valueLength); break;
+            case BINARY: ((BytesWritable) result).set(fagg.valueBytes, 0, fagg.valueLength); break;
+            case TIMESTAMP:
+                TimestampUtils.assignTimeInNanoSec(fagg.valueLong, timestamp);
+                ((TimestampWritable) result).set(timestamp);
+                break;
+            default:
+                throw new HiveException("Unsupported type of val_col in the vectorized mode: " + valueCategory);
+        }
+        return result;
+    }
+
+    @Override
+    public ObjectInspector getOutputObjectInspector() {
+        return outputOI;
+    }
+
+    @Override
+    public int getAggregationBufferFixedSize() {
+        JavaDataModel model = JavaDataModel.get();
+        int len = comparators.length;
+        return JavaDataModel.alignUp(model.object() + model.ref() * 6 + model.primitive1() * 3 +
+                model.primitive2() * 2 + model.lengthForBooleanArrayOfSize(len) +
+                model.lengthForLongArrayOfSize(len) + model.lengthForDoubleArrayOfSize(len) +
+                model.lengthForObjectArrayOfSize(len) + model.lengthForIntArrayOfSize(len),
+                model.memoryAlign());
+    }
+
+    @Override
+    public boolean hasVariableSize() {
+        return variableSize;
+    }
+}
@@ -0,0 +1,156 @@
+package in.chopl.hive.udaf.vector;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorAggregationBufferRow;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.IdentityExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.aggregates.VectorAggregateExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.plan.AggregationDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VectorFirstOrderedByTest {
+
+    private static VectorFirstOrderedBy newAggregate(String... orders) throws HiveException {
+        VectorExpression[] cmpExpressions = new VectorExpression[orders.length];
+        String[] cmpTypes = new String[orders.length];
+        for (int i = 0; i < orders.length; i++) {
+            cmpExpressions[i] = new IdentityExpression(i + 1, "bigint");
+            cmpTypes[i] = "bigint";
+        }
+        return new VectorFirstOrderedBy(new IdentityExpression(0, "string"), "string", cmpExpressions, cmpTypes, orders);
+    }
+
+    /**
+     * A batch of (val_col string, cmp_col1 bigint, cmp_col2 bigint). null in cmp_cols is a null.
+     */
+    private static VectorizedRowBatch makeBatch(String[] values, Long[] cmp1, Long[] cmp2) {
+        VectorizedRowBatch batch = new VectorizedRowBatch(3);
+        BytesColumnVector valueVector = new BytesColumnVector();
+        valueVector.initBuffer();
+        batch.cols[0] = valueVector;
+        batch.cols[1] = makeLongVector(cmp1);
+        batch.cols[2] = makeLongVector(cmp2);
+
+        for (int i = 0; i < values.length; i++) {
+            byte[] bytes = values[i].getBytes();
+            valueVector.setVal(i, bytes, 0, bytes.length);
+        }
+        batch.size = values.length;
+        return batch;
+    }
+
+    private static LongColumnVector makeLongVector(Long[] values) {
+        LongColumnVector vector = new LongColumnVector();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                vector.noNulls = false;
+                vector.isNull[i] = true;
+            } else {
+                vector.vector[i] = values[i];
+            }
+        }
+        return vector;
+    }
+
+    @Test
+    public void testAggregateInput() throws Exception {
+        VectorizedRowBatch batch1 = makeBatch(
+                new String[] {"a", "b", "c", "d"},
+                new Long[] {3L, 5L, 5L, null},
+                new Long[] {1L, 1L, 2L, 9L});
+        VectorizedRowBatch batch2 = makeBatch(
+                new String[] {"e", "f"},
+                new Long[] {5L, 6L},
+                new Long[] {3L, 0L});
+
+        VectorFirstOrderedBy desc = newAggregate("DESC");
+        VectorAggregateExpression.AggregationBuffer agg = desc.getNewAggregationBuffer();
+        desc.aggregateInput(agg, batch1);
+        // ties keep the earlier row
+        assertEquals(new Text("b"), desc.evaluateOutput(agg));
+        desc.aggregateInput(agg, batch2);
+        assertEquals(new Text("f"), desc.evaluateOutput(agg));
+
+        VectorFirstOrderedBy asc = newAggregate("ASC");
+        agg = asc.getNewAggregationBuffer();
+        asc.aggregateInput(agg, batch1);
+        // nulls are the smallest
+        assertEquals(new Text("d"), asc.evaluateOutput(agg));
+
+        VectorFirstOrderedBy two = newAggregate("DESC", "DESC");
+        agg = two.getNewAggregationBuffer();
+        two.aggregateInput(agg, batch1);
+        assertEquals(new Text("c"), two.evaluateOutput(agg));
+        two.aggregateInput(agg, batch2);
+        assertEquals(new Text("f"), two.evaluateOutput(agg));
+
+        two.reset(agg);
+        assertNull(two.evaluateOutput(agg));
+    }
+
+    @Test
+    public void testAggregateInputWithSelection() throws Exception {
+        VectorizedRowBatch batch = makeBatch(
+                new String[] {"a", "b", "c", "d"},
+                new Long[] {3L, 5L, 4L, 1L},
+                new Long[] {0L, 0L, 0L, 0L});
+        batch.selectedInUse = true;
+        batch.selected[0] = 0;
+        batch.selected[1] = 2;
+        batch.selected[2] = 3;
+        batch.size = 3;
+
+        VectorFirstOrderedBy desc = newAggregate("DESC");
+        VectorAggregateExpression.AggregationBuffer agg = desc.getNewAggregationBuffer();
+        desc.aggregateInput(agg, batch);
+        assertEquals(new Text("c"), desc.evaluateOutput(agg));
+    }
+
+    @Test
+    public void testAggregateInputSelection() throws Exception {
+        VectorizedRowBatch batch = makeBatch(
+                new String[] {"a", "b", "c", "d"},
+                new Long[] {3L, 5L, 4L, 1L},
+                new Long[] {0L, 0L, 0L, 0L});
+
+        // rows a, c go to group 0, and b, d to group 1
+        VectorFirstOrderedBy asc = newAggregate("ASC");
+        VectorAggregateExpression.AggregationBuffer[] groups = {
+                asc.getNewAggregationBuffer(), asc.getNewAggregationBuffer()};
+        VectorAggregationBufferRow[] rows = new VectorAggregationBufferRow[4];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new VectorAggregationBufferRow(new VectorAggregateExpression.AggregationBuffer[] {groups[i % 2]});
+        }
+
+        asc.aggregateInputSelection(rows, 0, batch);
+        assertEquals(new Text("a"), asc.evaluateOutput(groups[0]));
+        assertEquals(new Text("d"), asc.evaluateOutput(groups[1]));
+    }
+
+    @Test(expected = HiveException.class)
+    public void testInvalidOrder() throws Exception {
+        newAggregate("UP");
+    }
+
+    @Test
+    public void testInitWithCompleteMode() throws Exception {
+        AggregationDesc desc = new AggregationDesc();
+        desc.setMode(GenericUDAFEvaluator.Mode.COMPLETE);
+        newAggregate("ASC").init(desc);
+    }
+
+    @Test(expected = HiveException.class)
+    public void testInitWithPartialMode() throws Exception {
+        // a partial of the vectorized mode can not be merged by FirstOrderedBy
+        AggregationDesc desc = new AggregationDesc();
+        desc.setMode(GenericUDAFEvaluator.Mode.PARTIAL1);
+        newAggregate("ASC").init(desc);
+    }
+}